@@ -0,0 +1,530 @@
+import java.util.*;
+import java.io.*;
+
+/* Compiles TAC to a JVM class, one static int method per function, so
+   that programs run as Java code would. Global variables and constants
+   are static fields, everything else is an int local of its function:
+   booleans are 0 or 1, params are pushed on the operand stack and passed
+   as the arguments of the call, getparam n reading the n-th from last.
+   A main(String[]) method runs the program.
+
+   The class file is written by hand, in version 49, which is verified
+   without stack map frames. */
+class BytecodeGenerator {
+    private static final int version = 49;
+    private static final int maxCode = 65535;
+
+    private static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, LCONST_0 = 0x09, LCONST_1 = 0x0a,
+        BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15, LLOAD = 0x16, ISTORE = 0x36,
+        LSTORE = 0x37, POP = 0x57, DUP = 0x59, DUP2 = 0x5c, IADD = 0x60, LADD = 0x61,
+        ISUB = 0x64, LSUB = 0x65, IMUL = 0x68, LMUL = 0x69, LDIV = 0x6d, IAND = 0x7e,
+        IOR = 0x80, IXOR = 0x82, I2L = 0x85, L2I = 0x88, LCMP = 0x94, IFEQ = 0x99, IFNE = 0x9a,
+        IFGT = 0x9d, IF_ICMPEQ = 0x9f, GOTO = 0xa7,
+        IRETURN = 0xac, RETURN = 0xb1, GETSTATIC = 0xb2, PUTSTATIC = 0xb3,
+        INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, NEW = 0xbb,
+        WIDE = 0xc4;
+
+    private static final String out = "java/io/PrintStream", reader = "java/io/BufferedReader";
+
+    private final TAC tac;
+    private final String className;
+
+    private final HashMap<String, Integer> arity; // Number of arguments of each function.
+    private final HashSet<String> bools;          // Variables and functions holding booleans.
+    private boolean reads, trips;
+
+    private final ByteArrayOutputStream constants;
+    private final DataOutputStream pool;
+    private final HashMap<String, Integer> entries;
+
+    BytecodeGenerator(TAC tac, String className) {
+        this.tac       = tac;
+        this.className = className;
+        arity     = new HashMap<>();
+        bools     = new HashSet<>();
+        constants = new ByteArrayOutputStream();
+        pool      = new DataOutputStream(constants);
+        entries   = new HashMap<>();
+    }
+
+    // A class name for an input file, its name without the extension.
+    static String className(String fileName) {
+        String name = fileName.replaceFirst("\\.ccl$", "").replaceAll("[^A-Za-z0-9_$]", "_");
+        return Character.isJavaIdentifierStart(name.charAt(0)) ? name : "_" + name;
+    }
+
+    public byte[] generate() {
+        try {
+            analyse();
+            ArrayList<byte[]> methods = new ArrayList<>();
+            for (TAC.Function function : tac.functions) {
+                methods.add(method(function.name, descriptor(arity.get(function.name)),
+                                   new Method(function).code()));
+            }
+            methods.add(method("main", "([Ljava/lang/String;)V", launcher()));
+            if (reads) { methods.add(method("<clinit>", "()V", initializer())); }
+            if (trips) { methods.add(method("_trips", "(IIII)I", trips())); }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream classFile  = new DataOutputStream(bytes);
+            int thisClass  = classRef(className);
+            int superClass = classRef("java/lang/Object");
+            ArrayList<int[]> fields = new ArrayList<>();
+            for (String global : tac.globals) {
+                fields.add(new int[] {utf8(global), utf8("I")});
+            }
+            if (reads) { fields.add(new int[] {utf8("_in"), utf8("L" + reader + ";")}); }
+
+            classFile.writeInt(0xcafebabe);
+            classFile.writeShort(0);
+            classFile.writeShort(version);
+            classFile.writeShort(entries.size() + 1);
+            constants.writeTo(classFile);
+            classFile.writeShort(0x21); // public super
+            classFile.writeShort(thisClass);
+            classFile.writeShort(superClass);
+            classFile.writeShort(0);
+            classFile.writeShort(fields.size());
+            for (int[] field : fields) {
+                classFile.writeShort(0x09); // public static
+                classFile.writeShort(field[0]);
+                classFile.writeShort(field[1]);
+                classFile.writeShort(0);
+            }
+            classFile.writeShort(methods.size());
+            for (byte[] method : methods) { classFile.write(method); }
+            classFile.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Only written to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* The number of arguments of each function is the one it declares,
+       which its calls must pass. Also finds which variables hold booleans. */
+    private void analyse() {
+        for (TAC.Function function : tac.functions) { arity.put(function.name, function.params); }
+        for (TAC.Function function : tac.functions) {
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode != TAC.Opcode.CALL) { continue; }
+                if (ins.left.equals("_read"))  { reads = true; }
+                if (ins.left.equals("_trips")) { trips = true; }
+                if (TAC.isBuiltin(ins.left)) { continue; }
+                Integer n = arity.get(ins.left);
+                if (n == null) { throw new IllegalStateException(ins.left + " not defined!"); }
+                if (n != ins.value) {
+                    throw new IllegalStateException(ins.left + " called with different arities!");
+                }
+            }
+        }
+
+        bools.addAll(tac.booleans());
+    }
+
+    private boolean bool(String atom) { return TAC.isBoolean(atom, bools); }
+
+    private static String descriptor(int n) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < n; i++) { descriptor.append('I'); }
+        return descriptor.append(")I").toString();
+    }
+
+    /* The code of one function. Labels are placed as the code is written
+       and branches patched at the end, when all of them are known. */
+    private class Method {
+        final TAC.Function function;
+        final boolean main;
+        final int params;
+        final HashMap<String, Integer> locals;
+        final ArrayList<String> pushed; // Params not yet passed to a call.
+        final int[] labels;
+        final ArrayList<int[]> branches;
+        int scratch, maxPushed, maxLocals;
+
+        byte[] code;
+        int size;
+
+        Method(TAC.Function function) {
+            this.function = function;
+            main     = function == tac.functions.get(tac.functions.size() - 1);
+            params   = arity.get(function.name);
+            locals   = new HashMap<>();
+            pushed   = new ArrayList<>();
+            labels   = new int[function.labels()];
+            branches = new ArrayList<>();
+            code     = new byte[256];
+        }
+
+        int local(String name) {
+            Integer k = locals.get(name);
+            if (k == null) {
+                k = params + locals.size();
+                locals.put(name, k);
+            }
+            return k;
+        }
+
+        byte[] code() throws IOException {
+            // Locals are set before use, the verifier cannot see it.
+            int builtinArgs = 0;
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode == TAC.Opcode.CALL && TAC.isBuiltin(ins.left)) {
+                    builtinArgs = Math.max(builtinArgs, ins.value);
+                }
+                // The left operand of a call is the function.
+                String left = ins.opcode == TAC.Opcode.CALL ? null : ins.left;
+                for (String name : new String[] {ins.result, left, ins.right}) {
+                    if (name != null && !TAC.isLiteral(name) && !tac.globals.contains(name)) {
+                        local(name);
+                    }
+                }
+            }
+            for (int k : locals.values()) { push(0); istore(k); }
+            scratch   = params + locals.size();
+            maxLocals = scratch + builtinArgs;
+
+            for (int i = 0; i < function.size(); i++) { translate(function.get(i)); }
+            push(0);
+            u1(IRETURN);
+
+            for (int[] branch : branches) {
+                int offset = labels[branch[1]] - branch[0];
+                if (offset != (short) offset) { tooLarge(); }
+                code[branch[0] + 1] = (byte) (offset >> 8);
+                code[branch[0] + 2] = (byte) offset;
+            }
+            if (size > maxCode) { tooLarge(); }
+            return codeAttribute(maxPushed + 4, maxLocals, Arrays.copyOf(code, size));
+        }
+
+        void tooLarge() {
+            throw new IllegalStateException(function.name + " is too large for the JVM!");
+        }
+
+        void translate(TAC.Instruction ins) {
+            switch (ins.opcode) {
+                case LABEL:
+                    labels[ins.value] = size;
+                    break;
+                case COPY:
+                    load(ins.left);
+                    store(ins.result);
+                    break;
+                case UNARY: // Only NOT.
+                    load(ins.left);
+                    push(1);
+                    u1(IXOR);
+                    store(ins.result);
+                    break;
+                case BINARY:
+                    load(ins.left);
+                    load(ins.right);
+                    operate(ins.operator);
+                    store(ins.result);
+                    break;
+                case PARAM:
+                    load(ins.left);
+                    pushed.add(ins.left);
+                    maxPushed = Math.max(maxPushed, pushed.size());
+                    break;
+                case CALL:
+                    if (TAC.isBuiltin(ins.left)) { callBuiltin(ins); }
+                    else {
+                        u1(INVOKESTATIC);
+                        u2(methodRef(className, ins.left, descriptor(ins.value)));
+                        if (ins.result != null) { store(ins.result); }
+                        else { u1(POP); }
+                    }
+                    pushed.subList(Math.max(0, pushed.size() - ins.value), pushed.size()).clear();
+                    break;
+                case GETPARAM:
+                    if (ins.value > params) {
+                        throw new IllegalStateException(function.name + " has no param " + ins.value);
+                    }
+                    iload(params - ins.value);
+                    store(ins.result);
+                    break;
+                case IFZ:
+                    load(ins.left);
+                    if (ins.operator == null) { branch(IFEQ, ins.value); }
+                    else {
+                        load(ins.right);
+                        int compare = comparison(ins.operator);
+                        if (compare >= 0) { branch(negate(compare), ins.value); }
+                        else {
+                            operate(ins.operator);
+                            branch(IFEQ, ins.value);
+                        }
+                    }
+                    break;
+                case GOTO:
+                    branch(GOTO, ins.value);
+                    break;
+                case RETURN:
+                    if (ins.left != null) { load(ins.left); }
+                    else { push(0); }
+                    u1(IRETURN);
+                    break;
+            }
+        }
+
+        void callBuiltin(TAC.Instruction ins) {
+            int n = ins.value;
+            switch (ins.left) {
+                case "_print":
+                case "_println":
+                    for (int i = n - 1; i >= 0; i--) { istore(scratch + i); }
+                    for (int i = 0; i < n; i++) {
+                        String param = pushed.get(pushed.size() - n + i);
+                        u1(GETSTATIC);
+                        u2(fieldRef("java/lang/System", "out", "L" + out + ";"));
+                        iload(scratch + i);
+                        u1(INVOKEVIRTUAL);
+                        u2(methodRef(out, "print", bool(param) ? "(Z)V" : "(I)V"));
+                    }
+                    if (ins.left.equals("_println")) {
+                        u1(GETSTATIC);
+                        u2(fieldRef("java/lang/System", "out", "L" + out + ";"));
+                        u1(INVOKEVIRTUAL);
+                        u2(methodRef(out, "println", "()V"));
+                    }
+                    if (ins.result != null) { push(0); store(ins.result); }
+                    break;
+                case "_read":
+                    for (int i = 0; i < n; i++) { u1(POP); }
+                    u1(GETSTATIC);
+                    u2(fieldRef(className, "_in", "L" + reader + ";"));
+                    u1(INVOKEVIRTUAL);
+                    u2(methodRef(reader, "readLine", "()Ljava/lang/String;"));
+                    u1(INVOKEVIRTUAL);
+                    u2(methodRef("java/lang/String", "trim", "()Ljava/lang/String;"));
+                    u1(INVOKESTATIC);
+                    u2(methodRef("java/lang/Integer", "parseInt", "(Ljava/lang/String;)I"));
+                    if (ins.result != null) { store(ins.result); }
+                    else { u1(POP); }
+                    break;
+                case "_mult":
+                    u1(IMUL);
+                    if (ins.result != null) { store(ins.result); }
+                    else { u1(POP); }
+                    break;
+                case "_trips":
+                    u1(INVOKESTATIC);
+                    u2(methodRef(className, "_trips", "(IIII)I"));
+                    if (ins.result != null) { store(ins.result); }
+                    else { u1(POP); }
+                    break;
+                case "_exit":
+                    // Main returns, elsewhere the whole program stops.
+                    for (int i = 0; i < n; i++) { u1(POP); }
+                    push(0);
+                    if (main) { u1(IRETURN); }
+                    else {
+                        u1(INVOKESTATIC);
+                        u2(methodRef("java/lang/System", "exit", "(I)V"));
+                    }
+                    break;
+            }
+        }
+
+        // Replace the two operands on the stack by their result.
+        void operate(TAC.Operator op) {
+            switch (op) {
+                case PLUS:  u1(IADD); return;
+                case MINUS: u1(ISUB); return;
+                case AND:   u1(IAND); return;
+                case OR:    u1(IOR);  return;
+                default: // if_icmp* +7, iconst_0, goto +4, iconst_1
+                    u1(comparison(op)); u2(7);
+                    push(0);
+                    u1(GOTO); u2(4);
+                    push(1);
+            }
+        }
+
+        // The if_icmp* branching when the comparison holds.
+        int comparison(TAC.Operator op) {
+            switch (op) {
+                case EQUAL:     return IF_ICMPEQ;
+                case DIFFERENT: return IF_ICMPEQ + 1;
+                case LESS:      return IF_ICMPEQ + 2;
+                case GREATEREQ: return IF_ICMPEQ + 3;
+                case GREATER:   return IF_ICMPEQ + 4;
+                case LESSEQ:    return IF_ICMPEQ + 5;
+                default:        return -1;
+            }
+        }
+
+        // The opcodes come in pairs of opposite comparisons.
+        int negate(int compare) { return ((compare - IF_ICMPEQ) ^ 1) + IF_ICMPEQ; }
+
+        void load(String atom) {
+            if (atom.equals("true"))  { push(1); }
+            else if (atom.equals("false")) { push(0); }
+            else if (TAC.isLiteral(atom)) { push(Integer.parseInt(atom)); }
+            else if (tac.globals.contains(atom)) {
+                u1(GETSTATIC);
+                u2(fieldRef(className, atom, "I"));
+            } else { iload(local(atom)); }
+        }
+
+        void store(String name) {
+            if (tac.globals.contains(name)) {
+                u1(PUTSTATIC);
+                u2(fieldRef(className, name, "I"));
+            } else { istore(local(name)); }
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) { u1(ICONST_0 + value); }
+            else if (value == (byte) value) { u1(BIPUSH); u1(value); }
+            else if (value == (short) value) { u1(SIPUSH); u2(value); }
+            else { u1(LDC_W); u2(integer(value)); }
+        }
+
+        void iload(int k)  { variable(ILOAD, k);  }
+        void istore(int k) { variable(ISTORE, k); }
+
+        void variable(int opcode, int k) {
+            if (k <= 3) { u1(opcode + 5 + k); } // iload_0, istore_0 are 5 opcodes after
+            else if (k <= 0xff) { u1(opcode); u1(k); }
+            else { u1(WIDE); u1(opcode); u2(k); }
+        }
+
+        void branch(int opcode, int label) {
+            branches.add(new int[] {size, label});
+            u1(opcode);
+            u2(0);
+        }
+
+        void u1(int b) {
+            if (size == code.length) { code = Arrays.copyOf(code, size * 2); }
+            code[size++] = (byte) b;
+        }
+
+        void u2(int s) { u1(s >> 8); u1(s); }
+    }
+
+    // Calls the main function of the program.
+    private byte[] launcher() throws IOException {
+        int main = methodRef(className, "main", "()I");
+        return codeAttribute(1, 1, new byte[] {
+            (byte) INVOKESTATIC, (byte) (main >> 8), (byte) main, POP, (byte) RETURN
+        });
+    }
+
+    // Opens the standard input for _read.
+    private byte[] initializer() throws IOException {
+        int br  = classRef(reader), isr = classRef("java/io/InputStreamReader");
+        int in  = fieldRef("java/lang/System", "in", "Ljava/io/InputStream;");
+        int isrInit = methodRef("java/io/InputStreamReader", "<init>", "(Ljava/io/InputStream;)V");
+        int brInit  = methodRef(reader, "<init>", "(Ljava/io/Reader;)V");
+        int field   = fieldRef(className, "_in", "L" + reader + ";");
+        return codeAttribute(4, 0, new byte[] {
+            (byte) NEW, (byte) (br >> 8), (byte) br, DUP,
+            (byte) NEW, (byte) (isr >> 8), (byte) isr, DUP,
+            (byte) GETSTATIC, (byte) (in >> 8), (byte) in,
+            (byte) INVOKESPECIAL, (byte) (isrInit >> 8), (byte) isrInit,
+            (byte) INVOKESPECIAL, (byte) (brInit >> 8), (byte) brInit,
+            (byte) PUTSTATIC, (byte) (field >> 8), (byte) field,
+            (byte) RETURN
+        });
+    }
+
+    // TACInterpreter.trips, over longs in locals 4 and 6.
+    private byte[] trips() throws IOException {
+        return codeAttribute(4, 8, new byte[] {
+            // gap = a - b + inclusive, 0 trips if not positive.
+            ILOAD + 5, (byte) I2L, ILOAD + 6, (byte) I2L, LSUB, ILOAD + 8, (byte) I2L, LADD,
+            LSTORE, 4,
+            LLOAD, 4, LCONST_0, (byte) LCMP, (byte) IFGT, 0, 5, ICONST_0, (byte) IRETURN,
+            ILOAD + 7, (byte) IFGT, 0, 5, ICONST_M1, (byte) IRETURN,
+            // n = (gap + step - 1) / step, which must fit an int.
+            LLOAD, 4, ILOAD + 7, (byte) I2L, LADD, LCONST_1, LSUB, ILOAD + 7, (byte) I2L, LDIV,
+            LSTORE, 4,
+            LLOAD, 4, (byte) L2I, (byte) I2L, LLOAD, 4, (byte) LCMP, (byte) IFNE, 0, 38,
+            // As must a - n * step and b + n * step.
+            LLOAD, 4, ILOAD + 7, (byte) I2L, LMUL, LSTORE, 6,
+            ILOAD + 5, (byte) I2L, LLOAD, 6, LSUB, DUP2, (byte) L2I, (byte) I2L, (byte) LCMP,
+            (byte) IFNE, 0, 19,
+            ILOAD + 6, (byte) I2L, LLOAD, 6, LADD, DUP2, (byte) L2I, (byte) I2L, (byte) LCMP,
+            (byte) IFNE, 0, 7,
+            LLOAD, 4, (byte) L2I, (byte) IRETURN,
+            ICONST_M1, (byte) IRETURN
+        });
+    }
+
+    private static byte[] codeAttribute(int maxStack, int maxLocals, byte[] code) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream attribute  = new DataOutputStream(bytes);
+        attribute.writeShort(maxStack);
+        attribute.writeShort(maxLocals);
+        attribute.writeInt(code.length);
+        attribute.write(code);
+        attribute.writeShort(0);
+        attribute.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private byte[] method(String name, String descriptor, byte[] code) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream method     = new DataOutputStream(bytes);
+        method.writeShort(0x09); // public static
+        method.writeShort(utf8(name));
+        method.writeShort(utf8(descriptor));
+        method.writeShort(1);
+        method.writeShort(utf8("Code"));
+        method.writeInt(code.length);
+        method.write(code);
+        return bytes.toByteArray();
+    }
+
+    /* Constant pool entries are added once, the first time they are
+       needed, along with the entries they refer to. */
+    private int constant(String key, int tag, int a, int b) {
+        Integer index = entries.get(key);
+        if (index != null) { return index; }
+        try {
+            pool.writeByte(tag);
+            if (tag == 3) { pool.writeInt(a); }
+            else {
+                pool.writeShort(a);
+                if (b >= 0) { pool.writeShort(b); }
+            }
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        entries.put(key, entries.size() + 1);
+        return entries.size();
+    }
+
+    private int utf8(String s) {
+        Integer index = entries.get("U" + s);
+        if (index != null) { return index; }
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(s);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        entries.put("U" + s, entries.size() + 1);
+        return entries.size();
+    }
+
+    private int integer(int value) { return constant("I" + value, 3, value, -1); }
+
+    private int classRef(String name) { return constant("C" + name, 7, utf8(name), -1); }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) {
+        return constant("F" + owner + "." + name + ":" + descriptor, 9,
+                        classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        return constant("M" + owner + "." + name + ":" + descriptor, 10,
+                        classRef(owner), nameAndType(name, descriptor));
+    }
+}
@@ -96,7 +96,7 @@ WS : [ \t\n\r] -> skip ;
 
 program: decl_list func_list main EOF;
 
-decl_list : (decl SEMICOL decl_list)* ;
+decl_list : (decl SEMICOL)* ;
 
 decl : var_decl    
      | const_decl 
@@ -106,23 +106,19 @@ var_decl : VAR ID COLON type ;
 
 const_decl : CONST ID COLON type ASSIGN expr ;
 
-func_list : (func func_list)* ;
+func_list : func* ;
 
 func : type ID LPAREN param_list RPAREN LBRA decl_list stmt_block RETURN LPAREN (expr?) RPAREN SEMICOL RBRA ;
 
 type : INTEGER | BOOL | VOID ;
 
-param_list : parameter_list* ;
-
-parameter_list : param                      # SingleParam
-               | param COMMA parameter_list # NotSingleParam 
-               ;
+param_list : (param (COMMA param)*)? ;
 
 param : ID COLON type ;
 
 main : MAIN LBRA decl_list stmt_block RBRA ;
 
-stmt_block : (stmt stmt_block)* ;
+stmt_block : stmt* ;
 
 stmt : assignment SEMICOL   # AssignmentStmt
      | func_call  SEMICOL   # FuncCallStmt
@@ -161,9 +157,9 @@ condition : NOT condition                      # NegCond
           | bool_value                         # BoolValCond
           ;
 
-arg_list : argument_list* ;
+arg_list : (argument (COMMA argument)*)? ;
 
-argument_list : (ID | NUM | bool_value) | (ID | NUM | bool_value) COMMA argument_list ; 
+argument : ID | NUM | bool_value ;
 
 bool_value : TRUE | FALSE ;
 
@@ -0,0 +1,80 @@
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* Rebuild time after editing one function of a large file, with and
+   without a FunctionCache. A program of n functions is generated in a
+   temporary directory; each round changes a literal in one function
+   and compiles the file both ways, in the same JVM. */
+public class CacheBenchmark {
+    static String function(int i, int edit) {
+        return "integer f" + i + "(a:integer, b:integer) {\n" +
+               "    var r:integer;\n" +
+               "    var k:integer;\n" +
+               "    r = a + " + (i + edit) + ";\n" +
+               "    k = 10;\n" +
+               "    while (k > 0) {\n" +
+               "        if (r > b && k != 3) { r = r - b; } else { r = r + k; }\n" +
+               "        k = k - 1;\n" +
+               "    }\n" +
+               (i > 0 ? "    r = f" + (i - 1) + "(r, b);\n" : "") +
+               "    return (r);\n" +
+               "}\n\n";
+    }
+
+    static String program(int n, int[] edits) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < n; i++) { source.append(function(i, edits[i])); }
+        source.append("main {\n    var x:integer;\n    x = f" + (n - 1) + "(1, 2);\n}\n");
+        return source.toString();
+    }
+
+    // Compile the file, returning the time taken in nanoseconds.
+    static long compile(Path input, Path output, FunctionCache cache) {
+        PrintStream report = new PrintStream(new ByteArrayOutputStream());
+        long start = System.nanoTime();
+        if (!new Compilation(input, output).withCache(cache).run(report)) {
+            throw new IllegalStateException("the program does not compile");
+        }
+        return System.nanoTime() - start;
+    }
+
+    static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int n      = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int warmup = 5;
+
+        Path directory = Files.createTempDirectory("cache-benchmark");
+        Path input = directory.resolve("program.ccl"), output = directory.resolve("program.tac");
+        FunctionCache cache = new FunctionCache(directory.resolve("cache"));
+
+        int[] edits = new int[n];
+        Files.write(input, program(n, edits).getBytes());
+        long cold = compile(input, output, cache);
+
+        Random random = new Random(42);
+        long[] full = new long[rounds], cached = new long[rounds];
+        for (int r = -warmup; r < rounds; r++) {
+            edits[random.nextInt(n)]++;
+            Files.write(input, program(n, edits).getBytes());
+            long withCache = compile(input, output, cache);
+            long without   = compile(input, output, null);
+            if (r >= 0) {
+                cached[r] = withCache;
+                full[r]   = without;
+            }
+        }
+
+        System.out.println(n + " functions, one edited per round, " + rounds + " rounds:");
+        System.out.println("first build, empty cache: " + CompileClient.millis(cold) + " ms");
+        System.out.println("full rebuild: " + CompileClient.millis(median(full)) + " ms (median)");
+        System.out.println("with cache:   " + CompileClient.millis(median(cached)) + " ms (median), " +
+            cache.hits() + " hits, " + cache.misses() + " misses");
+    }
+}
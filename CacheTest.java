@@ -0,0 +1,62 @@
+import java.util.*;
+import java.io.*;
+
+/* Checks that compiling with a FunctionCache reports the same as a full
+   compilation when a function changes the kind of a global entity, see
+   CCALSemanticAnalyser.analyseInParallel: h assigns to the function f,
+   which then takes no arguments. h is found in the cache while m, after
+   it, is edited, and m must still be checked after h. Exits with 1 if a
+   report differs or the functions are not found as expected. */
+public class CacheTest {
+    // h changes the kind of f if kind is set, m calls f if calls is.
+    static String program(boolean kind, boolean calls, int edit) {
+        return "integer f(a:integer) { return (a); }\n" +
+               "integer k(a:integer) { var r:integer; r = a + 1; return (r); }\n" +
+               "integer h(a:integer) { " + (kind ? "f = k(a); " : "") + "return (a); }\n" +
+               "integer m(a:integer) { var r:integer; r = " + (calls ? "f" : "k") + "(a); " +
+               "r = r + " + edit + "; return (r); }\n" +
+               "main { var x:integer; x = m(1); x = h(x); }\n";
+    }
+
+    // The report, without the blank lines and the line on the cache.
+    static String compile(String source, FunctionCache cache) {
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(report, true);
+        new Compilation("program.ccl", source).withCache(cache).compile(out);
+        StringBuilder lines = new StringBuilder();
+        for (String line : report.toString().split("\n")) {
+            if (!line.isEmpty() && !line.endsWith("functions found in the cache.")) { lines.append(line).append('\n'); }
+        }
+        return lines.toString();
+    }
+
+    static boolean failed;
+
+    // The number of functions expected to be found in the cache.
+    static void check(String what, String source, FunctionCache cache, int hits) {
+        int before = cache.hits();
+        String cached = compile(source, cache), full = compile(source, null);
+        if (!cached.equals(full)) {
+            System.out.println("FAIL " + what + ": the report differs from a full compilation.");
+            System.out.println("Full:\n" + full + "With the cache:\n" + cached);
+            failed = true;
+        } else if (cache.hits() - before != hits) {
+            System.out.println("FAIL " + what + ": " + (cache.hits() - before) + " functions found, " +
+                hits + " expected.");
+            failed = true;
+        } else { System.out.println("ok   " + what); }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        FunctionCache cache = new FunctionCache(null);
+        check("kind unchanged, empty cache", program(false, false, 1), cache, 0);
+        // m is found, but checked again after h, and not stored.
+        check("kind changed, m found", program(true, false, 1), cache, 3);
+        // Checked on its own, m would not see that f takes no arguments.
+        check("h found, m calling f", program(true, true, 1), cache, 3);
+        check("h found, m edited", program(true, false, 2), cache, 3);
+        check("kind unchanged again", program(false, false, 1), cache, 4);
+
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.*;
+
+/* Which functions each function calls, from its call instructions.
+   The builtins of the interpreter are left out. */
+class CallGraph {
+    private final LinkedHashMap<String, LinkedHashSet<String>> callees;
+
+    CallGraph(TAC tac) {
+        callees = new LinkedHashMap<>();
+        for (TAC.Function function : tac.functions) {
+            LinkedHashSet<String> called = new LinkedHashSet<>();
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode == TAC.Opcode.CALL && !TAC.isBuiltin(ins.left)) {
+                    called.add(ins.left);
+                }
+            }
+            callees.put(function.name, called);
+        }
+    }
+
+    public Set<String> callees(String function) {
+        Set<String> called = callees.get(function);
+        return called != null ? called : Collections.emptySet();
+    }
+
+    // The functions a call to this one may run, itself excluded unless recursive.
+    public Set<String> reachableFrom(String function) {
+        LinkedHashSet<String> reached = new LinkedHashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>(callees(function));
+        while (!work.isEmpty()) {
+            String callee = work.pop();
+            if (reached.add(callee)) { work.addAll(callees(callee)); }
+        }
+        return reached;
+    }
+
+    // Whether a function may call itself, even through others.
+    public boolean isRecursive(String function) {
+        return reachableFrom(function).contains(function);
+    }
+}
@@ -0,0 +1,199 @@
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.Token;
+
+import java.util.concurrent.*;
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* Compiles one file: parsing, semantic analysis and code generation.
+   Nothing is shared between two compilations, so they can run on
+   different threads. What would be printed is kept in a report. */
+class Compilation implements Callable<Compilation> {
+    static final String green = "\u001B[32m";
+    static final String reset = "\u001B[0m";
+
+    final Path input, output;
+    private final String source;
+    private final ByteArrayOutputStream report;
+    private boolean succeeded;
+    private int level; // Of optimization, none by default.
+    private boolean intrinsics;
+    private FunctionCache cache;
+    private Stats stats = Stats.none;
+
+    Compilation(final Path input, final Path output) { this(input, output, null); }
+
+    // Compile a source held in memory, nothing is written.
+    Compilation(final String name, final String source) { this(Paths.get(name), null, source); }
+
+    // The output is written next to the input, as <name>.tac.
+    Compilation(final Path input) { this(input, outputOf(input)); }
+
+    // The source of the input is already read.
+    Compilation(final Path input, final Path output, final String source) {
+        this.input  = input;
+        this.output = output;
+        this.source = source;
+        report      = new ByteArrayOutputStream();
+        succeeded   = false;
+    }
+
+    static Path outputOf(final Path input) {
+        return input.resolveSibling(input.getFileName().toString()
+            .replaceFirst("\\.ccl$", "") + ".tac");
+    }
+
+    public Compilation optimize(int level) {
+        this.level = level;
+        return this;
+    }
+
+    // The code is run in-process, which knows the intrinsics, see Optimizer.
+    public Compilation withIntrinsics() {
+        intrinsics = true;
+        return this;
+    }
+
+    // Functions found in the cache are not compiled again.
+    public Compilation withCache(FunctionCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    // Each phase is measured, and the sizes counted, see Stats.
+    public Compilation withStats(boolean kept) {
+        stats = kept ? new Stats(input.toString()) : Stats.none;
+        return this;
+    }
+
+    /* A failure is kept in the report, so that the other files of a
+       batch or the other requests of a server go on. A program nested
+       too deeply for the stack is such a failure. */
+    @Override
+    public Compilation call() {
+        PrintStream out = new PrintStream(report, true);
+        try { succeeded = run(out); } 
+        catch (CompilationException e) { out.println(e.getMessage()); } 
+        catch (RuntimeException | StackOverflowError e) { out.println("Error when compiling: " + e); }
+        out.flush();
+        return this;
+    }
+
+    private SyntaxAnalyser syntaxAnalyser() {
+        return source == null ? new SyntaxAnalyser(input.toString()) :
+                                new SyntaxAnalyser(input.toString(), source);
+    }
+
+    // Returns the generated code, or null if the source has errors.
+    public TAC compile(PrintStream out) {
+        if (cache != null) {
+            try { return compileWithCache(out); }
+            catch (FunctionCache.ParseFailure e) {
+                // Parsed as a whole below, which reports the errors.
+            }
+        }
+
+        final SyntaxAnalyser syntaxAnalyser = syntaxAnalyser();
+        ParseTree tree = syntaxAnalyser.parse(stats);
+        syntaxAnalyser.outputResult(out);
+        if (!syntaxAnalyser.parsingSuccessful()) { return null; }
+
+        CCALSemanticAnalyser semanticAnalyser = new CCALSemanticAnalyser(tree).withStats(stats);
+        semanticAnalyser.performAnalysis();
+        stats.count("symbols", semanticAnalyser::symbols);
+        out.println();
+        semanticAnalyser.outputResult(out);
+        if (!semanticAnalyser.analysisSucceeded()) { return null; }
+
+        // The functions main never runs are left out.
+        IRCodeGenerator generator = new IRCodeGenerator(tree).withStats(stats)
+            .onlyFunctions(semanticAnalyser.reachableFunctions());
+        return optimize(generator.generate(), out);
+    }
+
+    /* The functions are split from the tokens, and only those not found
+       in the cache are parsed, checked and generated, the global
+       declarations and main always are. Nothing is printed until the
+       parts are known to parse on their own. The functions not found are
+       parsed while their signatures are checked. */
+    private TAC compileWithCache(PrintStream out) {
+        final SyntaxAnalyser syntaxAnalyser = syntaxAnalyser();
+        List<Token> tokens = stats.measure("lexing", syntaxAnalyser::tokens);
+        List<List<Token>> parts = tokens != null ? FunctionCache.split(tokens) : null;
+        if (parts == null) { throw new FunctionCache.ParseFailure(input.toString()); }
+        CCALParser.Decl_listContext decls = stats.measure("parsing",
+            () -> SyntaxAnalyser.parse(parts.get(0), CCALParser::decl_list));
+        CCALParser.MainContext main = stats.measure("parsing",
+            () -> SyntaxAnalyser.parse(parts.get(parts.size() - 1), CCALParser::main));
+        if (decls == null || main == null) { throw new FunctionCache.ParseFailure(input.toString()); }
+        ArrayList<FunctionCache.Unit> units = new ArrayList<>();
+        for (List<Token> part : parts.subList(1, parts.size() - 1)) { units.add(new FunctionCache.Unit(part)); }
+
+        CCALSemanticAnalyser semanticAnalyser = new CCALSemanticAnalyser(null).withStats(stats);
+        semanticAnalyser.performAnalysis(decls, units, main, cache);
+        stats.count("tokens", () -> tokens.size() - 1);
+        stats.count("parse tree nodes", () -> {
+            long nodes = Stats.nodes(decls) + Stats.nodes(main);
+            for (FunctionCache.Unit unit : units) { nodes += Stats.nodes(unit.parsed()); }
+            return nodes;
+        });
+        stats.count("symbols", semanticAnalyser::symbols);
+        syntaxAnalyser.outputResult(out);
+        out.println();
+        semanticAnalyser.outputResult(out);
+        if (!semanticAnalyser.analysisSucceeded()) { return null; }
+
+        boolean[] known = new boolean[units.size()];
+        for (int i = 0; i < units.size(); i++) { known[i] = units.get(i).code() != null; }
+        TAC tac = new IRCodeGenerator(null).withStats(stats)
+            .onlyFunctions(semanticAnalyser.reachableFunctions()).generate(decls, units, main);
+
+        // Stored before the optimizations change the code.
+        int found = 0;
+        for (int i = 0; i < units.size(); i++) {
+            FunctionCache.Unit unit = units.get(i);
+            if (unit.found) { found++; }
+            if (unit.key == null || unit.entry == null) { continue; }
+            if (!unit.found || (!known[i] && unit.code() != null)) { cache.store(unit.key, unit.entry); }
+        }
+        out.println("\n" + found + " of " + units.size() + " functions found in the cache.");
+        return optimize(tac, out);
+    }
+
+    // The sizes counted are those of the code once optimized.
+    private TAC optimize(TAC tac, PrintStream out) {
+        if (level > 0) {
+            Optimizer optimizer = new Optimizer(level, intrinsics);
+            stats.measure("optimization", () -> optimizer.optimize(tac));
+            out.println();
+            optimizer.outputResult(out);
+        }
+        stats.count("temporaries", () -> {
+            long temporaries = 0;
+            for (TAC.Function function : tac.functions) { temporaries += function.temporaries.size(); }
+            return temporaries;
+        });
+        stats.count("instructions", tac::size);
+        return tac;
+    }
+
+    public boolean run(PrintStream out) {
+        TAC result = compile(out);
+        if (result == null) { return false; }
+        stats.measure("emission", () -> {
+            try {
+                TACEmitter.write(result, output);
+            } catch (IOException e) {
+                throw new CompilationException("Error when trying to write the result.");
+            }
+        });
+
+        out.println(green + "\nIntermediate code generation succeeded." + reset);
+        return true;
+    }
+
+    public boolean succeeded() { return succeeded; }
+    public String  report()    { return report.toString(); }
+    public Stats   stats()     { return stats; }
+}
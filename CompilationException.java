@@ -0,0 +1,5 @@
+/* Thrown when the compilation of a file cannot go on, e.g. when
+   it cannot be read. It is reported for that file only. */
+class CompilationException extends RuntimeException {
+    CompilationException(final String message) { super(message); }
+}
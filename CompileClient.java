@@ -0,0 +1,99 @@
+import java.util.concurrent.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* Client of the CompileServer. Sends a file and prints the diagnostics
+   and the generated code, or with --load, sends the same file from
+   many concurrent connections and reports the latencies. */
+public class CompileClient {
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    boolean succeeded;
+    String diagnostics, code;
+
+    CompileClient(final SocketChannel channel) {
+        in  = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    void compile(final byte[] source) throws IOException {
+        out.writeInt(source.length);
+        out.write(source);
+        out.flush();
+
+        succeeded   = in.readByte() == 0;
+        diagnostics = readString();
+        code        = readString();
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Each of the clients sends its requests one after the other,
+       the latency of every request being recorded. */
+    static void load(final String where, final byte[] source, 
+                     final int clients, final int requests) throws Exception {
+        long[] latencies = new long[clients * requests];
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            final int offset = c * requests;
+            futures.add(executor.submit(() -> {
+                try (SocketChannel channel = CompileServer.connect(where)) {
+                    CompileClient client = new CompileClient(channel);
+                    for (int r = 0; r < requests; r++) {
+                        long t = System.nanoTime();
+                        client.compile(source);
+                        latencies[offset + r] = System.nanoTime() - t;
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) { future.get(); }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        int n = latencies.length;
+        System.out.println(n + " requests from " + clients + " clients in " + 
+            (elapsed / 1000000) + " ms (" + (long) (n / (elapsed / 1e9)) + " requests/s)");
+        System.out.println("p50: " + millis(latencies[n / 2]) + " ms");
+        System.out.println("p99: " + millis(latencies[Math.min(n - 1, n * 99 / 100)]) + " ms");
+        System.out.println("max: " + millis(latencies[n - 1]) + " ms");
+    }
+
+    static String millis(long nanos) { return String.format("%.3f", nanos / 1e6); }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 2 && !(args.length == 5 && args[2].equals("--load"))) {
+            System.err.println("Usage: CompileClient <port|socket> <file> " + 
+                "[--load <clients> <requests>]");
+            System.exit(1);
+        }
+
+        byte[] source = Files.readAllBytes(Paths.get(args[1]));
+
+        if (args.length == 5) {
+            load(args[0], source, Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+
+        try (SocketChannel channel = CompileServer.connect(args[0])) {
+            CompileClient client = new CompileClient(channel);
+            client.compile(source);
+            System.err.print(client.diagnostics);
+            System.out.print(client.code);
+            if (!client.succeeded) { System.exit(1); }
+        }
+    }
+}
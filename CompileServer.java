@@ -0,0 +1,136 @@
+import java.util.concurrent.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.net.*;
+import java.io.*;
+
+/* A resident compiler, listening on a local socket: a TCP port on the
+   loopback interface, or a Unix domain socket given by its path.
+   A connection can carry any number of requests, answered in order:
+
+       request:  int length, source       (UTF-8)
+       response: byte status              (0 success, 1 failure)
+                 int length, diagnostics  (UTF-8)
+                 int length, TAC          (UTF-8, empty on failure)
+
+   Each connection is handled on its own virtual thread. The JIT and
+   the DFA cache of the parser, which is static, stay warm between
+   requests. With stats, connections are handled on platform threads,
+   as the CPU time and allocations of virtual threads are not measured;
+   the report is written at most once a second, and when stopped. */
+class CompileServer {
+    static final int maxSourceLength = 64 << 20;
+    static final String requestName = "<request>";
+
+    final String where;
+    final int level; // Of optimization.
+    private Path statsFile; // Null if no stats are kept.
+    private final Stats.Aggregate stats = new Stats.Aggregate();
+    private long written; // When the stats were last written, in ms.
+
+    CompileServer(final String where) { this(where, 0); }
+
+    CompileServer(final String where, final int level) {
+        this.where = where;
+        this.level = level;
+    }
+
+    public CompileServer withStats(Path file) {
+        statsFile = file;
+        return this;
+    }
+
+    // A number is a TCP port, anything else the path of a Unix socket.
+    static SocketAddress address(final String where) {
+        if (where.matches("[0-9]+")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), 
+                Integer.parseInt(where));
+        }
+        return UnixDomainSocketAddress.of(where);
+    }
+
+    static SocketChannel connect(final String where) throws IOException {
+        return SocketChannel.open(address(where));
+    }
+
+    public void serve() throws IOException {
+        SocketAddress address = address(where);
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else { server = ServerSocketChannel.open(); }
+
+        if (statsFile != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> Stats.write(statsFile, stats.toJson())));
+        }
+        try (server; ExecutorService executor = statsFile != null ? Executors.newCachedThreadPool() :
+                                                Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(address);
+            System.out.println("Listening on " + where + ".");
+            while (true) {
+                SocketChannel client = server.accept();
+                executor.submit(() -> handle(client));
+            }
+        }
+    }
+
+    private void handle(final SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+
+            while (true) {
+                int length;
+                try { length = in.readInt(); } 
+                catch (EOFException e) { return; }
+                if (length < 0 || length > maxSourceLength) { return; }
+
+                byte[] source = new byte[length];
+                in.readFully(source);
+                respond(out, new String(source, StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error when handling a request: " + e.getMessage());
+        }
+    }
+
+    private void respond(final DataOutputStream out, final String source) throws IOException {
+        ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        PrintStream report = new PrintStream(diagnostics, true, StandardCharsets.UTF_8);
+
+        TAC result = null;
+        Compilation compilation = new Compilation(requestName, source).optimize(level)
+            .withStats(statsFile != null);
+        try { result = compilation.compile(report); } 
+        catch (CompilationException e) { report.println(e.getMessage()); }
+        catch (RuntimeException | StackOverflowError e) {
+            // Answered as a failure, so that it is not taken for a dropped connection.
+            report.println("Error when compiling: " + e);
+            System.err.println("Error when compiling a request: " + e);
+        }
+        if (statsFile != null) { addStats(compilation.stats()); }
+        if (result != null) { new TACEmitter(Channels.newChannel(code)).emit(result); }
+
+        out.writeByte(result != null ? 0 : 1);
+        out.writeInt(diagnostics.size());
+        diagnostics.writeTo(out);
+        out.writeInt(code.size());
+        code.writeTo(out);
+    }
+
+    private void addStats(Stats compilation) {
+        stats.add(compilation);
+        synchronized (stats) {
+            long now = System.currentTimeMillis();
+            if (now - written < 1000) { return; }
+            written = now;
+        }
+        Stats.write(statsFile, stats.toJson());
+    }
+}
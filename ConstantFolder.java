@@ -0,0 +1,250 @@
+import java.util.*;
+
+/* Folds operations on literals and propagates constants through the
+   program. A variable whose only definition copies a literal holds it
+   once set, so it is replaced by the literal where the definition has
+   surely run: in its function, where it dominates the use, and in the
+   other functions if it is at the start of main, before any call or
+   jump, as are const declarations. Before, the variable may still be
+   unassigned. Inside a basic block, variables are also replaced by the
+   value last copied into them. Definitions nothing reads any more are
+   then removed.
+
+   The interpreter has no negative literals, a negative result is kept
+   as "0 - n" and only used to fold the operations reading it. */
+class ConstantFolder {
+    private final TAC tac;
+    private final HashMap<String, Definition> constants; // Variables with a single literal definition.
+    private final HashMap<String, String> known;         // Values known in the current block.
+
+    // Of the current function, to tell where the definitions have run.
+    private Dominators dominators;
+    private int[] blocks; // The block of each instruction.
+
+    private static class Definition {
+        final TAC.Function function;
+        final int index;
+        final String value;
+        final boolean first; // Run before anything else, see findConstants().
+
+        Definition(TAC.Function function, int index, String value, boolean first) {
+            this.function = function;
+            this.index    = index;
+            this.value    = value;
+            this.first    = first;
+        }
+    }
+
+    ConstantFolder(TAC tac) {
+        this.tac  = tac;
+        constants = new HashMap<>();
+        known     = new HashMap<>();
+    }
+
+    // Fold until nothing changes, returning the number of instructions removed.
+    public int fold() {
+        int before = tac.size();
+        boolean changed = true;
+        while (changed) {
+            findConstants();
+            changed = false;
+            for (TAC.Function function : tac.functions) {
+                if (fold(function)) { changed = true; }
+            }
+            if (removeUnused()) { changed = true; }
+        }
+        return before - tac.size();
+    }
+
+    /* The other functions can only run once main calls them, so what
+       main copies before its first call, label or jump is set for them. */
+    private void findConstants() {
+        HashMap<String, Integer> definitions = new HashMap<>();
+        HashMap<String, Definition> values = new HashMap<>();
+        for (TAC.Function function : tac.functions) {
+            boolean first = function.name.equals("main");
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode == TAC.Opcode.CALL || ins.opcode == TAC.Opcode.LABEL ||
+                    ControlFlowGraph.endsBlock(ins)) { first = false; }
+                if (ins.result == null) { continue; }
+                definitions.merge(ins.result, 1, Integer::sum);
+                if (ins.opcode == TAC.Opcode.COPY && representable(ins.left)) {
+                    values.put(ins.result, new Definition(function, i, ins.left, first));
+                }
+            }
+        }
+        constants.clear();
+        for (Map.Entry<String, Definition> value : values.entrySet()) {
+            if (definitions.get(value.getKey()) == 1) {
+                constants.put(value.getKey(), value.getValue());
+            }
+        }
+    }
+
+    private boolean fold(TAC.Function function) {
+        boolean changed = false;
+        known.clear();
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        dominators = new Dominators(cfg);
+        blocks     = new int[function.size()];
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            for (int i = block.start; i < block.end; i++) { blocks[i] = block.index; }
+        }
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode != TAC.Opcode.CALL) {
+                String left = substitute(ins.left, function, i), right = substitute(ins.right, function, i);
+                if (!Objects.equals(left, ins.left) || !Objects.equals(right, ins.right)) {
+                    ins.left  = left;
+                    ins.right = right;
+                    changed = true;
+                }
+            }
+
+            TAC.Instruction folded = ins;
+            switch (ins.opcode) {
+                case LABEL:
+                case CALL:
+                    // Jumped to, or calling code which may write anything.
+                    known.clear();
+                    break;
+                case UNARY:
+                case BINARY:
+                    folded = foldOperation(ins);
+                    break;
+                case IFZ:
+                    Integer condition = ins.operator == null ? value(ins.left) :
+                        compute(ins.operator, ins.left, ins.right);
+                    if (condition == null) { break; }
+                    folded = condition == 0 ? TAC.Instruction.jump(ins.value) : null;
+                    break;
+                default:
+                    break;
+            }
+            if (folded != ins) {
+                function.set(i, folded);
+                changed = true;
+            }
+
+            if (folded != null && folded.result != null) {
+                if (folded.opcode == TAC.Opcode.COPY && TAC.isLiteral(folded.left)) {
+                    known.put(folded.result, folded.left);
+                } else if (isNegation(folded)) {
+                    known.put(folded.result, "-" + folded.right);
+                } else { known.remove(folded.result); }
+            }
+        }
+        function.compact();
+        return changed;
+    }
+
+    // The instruction computing the same value more simply, if any.
+    private TAC.Instruction foldOperation(TAC.Instruction ins) {
+        Integer result = ins.opcode == TAC.Opcode.UNARY ?
+            compute(ins.operator, ins.left, null) : compute(ins.operator, ins.left, ins.right);
+
+        if (result == null) {
+            // x + 0, 0 + x and x - 0 are copies.
+            boolean arithmetic = ins.operator == TAC.Operator.PLUS ||
+                                 ins.operator == TAC.Operator.MINUS;
+            if (arithmetic && "0".equals(ins.right)) {
+                return TAC.Instruction.copy(ins.result, ins.left);
+            }
+            if (ins.operator == TAC.Operator.PLUS && "0".equals(ins.left)) {
+                return TAC.Instruction.copy(ins.result, ins.right);
+            }
+            return ins;
+        }
+
+        if (isBoolean(ins.operator)) {
+            return TAC.Instruction.copy(ins.result, result != 0 ? "true" : "false");
+        }
+        if (result >= 0) { return TAC.Instruction.copy(ins.result, Integer.toString(result)); }
+        if (result == Integer.MIN_VALUE || isNegation(ins)) { return ins; }
+        return TAC.Instruction.binary(ins.result, "0", TAC.Operator.MINUS,
+                                      Integer.toString(-result));
+    }
+
+    private static boolean isNegation(TAC.Instruction ins) {
+        return ins.opcode == TAC.Opcode.BINARY && ins.operator == TAC.Operator.MINUS &&
+               "0".equals(ins.left) && TAC.isLiteral(ins.right);
+    }
+
+    private static boolean isBoolean(TAC.Operator op) {
+        return op != TAC.Operator.PLUS && op != TAC.Operator.MINUS;
+    }
+
+    // The result of an operation on known values, booleans being 0 or 1.
+    private Integer compute(TAC.Operator op, String left, String right) {
+        Integer a = value(left);
+        Integer b = right != null ? value(right) : null;
+        if (a == null || (right != null && b == null)) { return null; }
+        switch (op) {
+            case PLUS:      return a + b;
+            case MINUS:     return a - b;
+            case AND:       return (a != 0 && b != 0) ? 1 : 0;
+            case OR:        return (a != 0 || b != 0) ? 1 : 0;
+            case NOT:       return a == 0 ? 1 : 0;
+            case EQUAL:     return a.equals(b) ? 1 : 0;
+            case DIFFERENT: return !a.equals(b) ? 1 : 0;
+            case GREATER:   return a >  b ? 1 : 0;
+            case GREATEREQ: return a >= b ? 1 : 0;
+            case LESS:      return a <  b ? 1 : 0;
+            default:        return a <= b ? 1 : 0;
+        }
+    }
+
+    private Integer value(String atom) {
+        if (!TAC.isLiteral(atom)) { atom = known.get(atom); }
+        if (atom == null) { return null; }
+        if (atom.equals("true"))  { return 1; }
+        if (atom.equals("false")) { return 0; }
+        return Integer.parseInt(atom);
+    }
+
+    // The literal an operand of the i-th instruction can be replaced with, or itself.
+    private String substitute(String atom, TAC.Function function, int i) {
+        if (atom == null || TAC.isLiteral(atom)) { return atom; }
+        Definition definition = constants.get(atom);
+        String value = definition != null && hasRun(definition, function, i) ? definition.value : null;
+        if (value == null) { value = known.get(atom); }
+        return value != null && representable(value) ? value : atom;
+    }
+
+    // Whether the definition has run whenever the i-th instruction does.
+    private boolean hasRun(Definition definition, TAC.Function function, int i) {
+        if (definition.function != function) { return definition.first; }
+        int from = blocks[definition.index], to = blocks[i];
+        if (from == to) { return definition.index < i; }
+        return dominators.dominates(dominators.cfg.blocks.get(from), dominators.cfg.blocks.get(to));
+    }
+
+    private static boolean representable(String atom) {
+        return TAC.isLiteral(atom) && atom.charAt(0) != '-';
+    }
+
+    // Remove the operations whose result is never read.
+    private boolean removeUnused() {
+        HashSet<String> used = new HashSet<>();
+        for (TAC.Function function : tac.functions) {
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode != TAC.Opcode.CALL && ins.left != null) { used.add(ins.left); }
+                if (ins.right != null) { used.add(ins.right); }
+            }
+        }
+
+        boolean changed = false;
+        for (TAC.Function function : tac.functions) {
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (DeadCodeEliminator.isPure(ins) && !used.contains(ins.result)) {
+                    function.set(i, null);
+                }
+            }
+            if (function.compact() > 0) { changed = true; }
+        }
+        return changed;
+    }
+}
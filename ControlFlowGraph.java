@@ -0,0 +1,113 @@
+import java.util.*;
+
+/* The basic blocks of a function and the jumps between them. A block
+   starts at the first instruction, at a label or after a jump, and ends
+   with a goto, an ifz, a return or a call to _exit, or before a label.
+   Blocks are numbered in the order of the code, the entry being 0. */
+class ControlFlowGraph {
+    static class Block {
+        final int index;
+        final int start, end; // The instructions, end excluded.
+        final ArrayList<Block> successors, predecessors;
+
+        Block(int index, int start, int end) {
+            this.index   = index;
+            this.start   = start;
+            this.end     = end;
+            successors   = new ArrayList<>();
+            predecessors = new ArrayList<>();
+        }
+
+        void jumpsTo(Block block) {
+            if (successors.contains(block)) { return; }
+            successors.add(block);
+            block.predecessors.add(this);
+        }
+    }
+
+    final TAC.Function function;
+    final ArrayList<Block> blocks;
+    private final Block[] labelBlocks;
+
+    ControlFlowGraph(TAC.Function function) {
+        this.function = function;
+        blocks        = new ArrayList<>();
+        labelBlocks   = new Block[function.labels()];
+
+        int start = 0;
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode == TAC.Opcode.LABEL && i > start) {
+                addBlock(start, i);
+                start = i;
+            }
+            if (endsBlock(ins)) {
+                addBlock(start, i + 1);
+                start = i + 1;
+            }
+        }
+        if (start < function.size()) { addBlock(start, function.size()); }
+
+        for (Block block : blocks) {
+            TAC.Instruction last = function.get(block.end - 1);
+            switch (last.opcode) {
+                case GOTO:
+                    block.jumpsTo(labelBlocks[last.value]);
+                    break;
+                case IFZ:
+                    block.jumpsTo(labelBlocks[last.value]);
+                    fallThrough(block);
+                    break;
+                case RETURN:
+                    break;
+                default:
+                    if (!isExit(last)) { fallThrough(block); }
+            }
+        }
+    }
+
+    private void addBlock(int start, int end) {
+        Block block = new Block(blocks.size(), start, end);
+        blocks.add(block);
+        for (int i = start; i < end; i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode == TAC.Opcode.LABEL) { labelBlocks[ins.value] = block; }
+        }
+    }
+
+    private void fallThrough(Block block) {
+        if (block.index + 1 < blocks.size()) { block.jumpsTo(blocks.get(block.index + 1)); }
+    }
+
+    static boolean endsBlock(TAC.Instruction ins) {
+        return ins.opcode == TAC.Opcode.GOTO || ins.opcode == TAC.Opcode.IFZ ||
+               ins.opcode == TAC.Opcode.RETURN || isExit(ins);
+    }
+
+    static boolean isExit(TAC.Instruction ins) {
+        return ins.opcode == TAC.Opcode.CALL && ins.left.equals("_exit");
+    }
+
+    public Block entry() { return blocks.isEmpty() ? null : blocks.get(0); }
+
+    // The block a label starts, or null if the label is not in the code.
+    public Block blockOf(int label) { return labelBlocks[label]; }
+
+    // The blocks reachable from the entry.
+    public BitSet reachable() {
+        BitSet reached = new BitSet(blocks.size());
+        if (blocks.isEmpty()) { return reached; }
+        ArrayDeque<Block> work = new ArrayDeque<>();
+        work.push(entry());
+        reached.set(0);
+        while (!work.isEmpty()) {
+            for (Block next : work.pop().successors) {
+                if (!reached.get(next.index)) {
+                    reached.set(next.index);
+                    work.push(next);
+                }
+            }
+        }
+        return reached;
+    }
+}
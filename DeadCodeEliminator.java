@@ -0,0 +1,75 @@
+import java.util.*;
+
+/* Removes the blocks no path from the entry of their function reaches,
+   and the assignments whose value is never read: those of variables
+   which are not live after them. A function which may call itself, even
+   through others, reads its own variables after the inner call returns,
+   so they are all considered live when it returns. */
+class DeadCodeEliminator {
+    private final TAC tac;
+    private final HashSet<String> readGlobals; // Globals some instruction reads.
+    private CallGraph calls;
+
+    DeadCodeEliminator(TAC tac) {
+        this.tac    = tac;
+        readGlobals = new HashSet<>();
+    }
+
+    // Returns the number of instructions removed.
+    public int eliminate() {
+        int before = tac.size();
+        for (TAC.Function function : tac.functions) {
+            for (int i = 0; i < function.size(); i++) {
+                for (String use : Liveness.uses(function.get(i))) {
+                    if (tac.globals.contains(use)) { readGlobals.add(use); }
+                }
+            }
+        }
+        calls = new CallGraph(tac);
+
+        for (TAC.Function function : tac.functions) {
+            while (eliminate(function) > 0) { }
+        }
+        return before - tac.size();
+    }
+
+    private int eliminate(TAC.Function function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        BitSet reachable = cfg.reachable();
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            if (reachable.get(block.index)) { continue; }
+            for (int i = block.start; i < block.end; i++) { function.set(i, null); }
+        }
+        if (function.compact() > 0) { cfg = new ControlFlowGraph(function); }
+
+        Collection<String> atReturn = readGlobals;
+        if (calls.isRecursive(function.name)) {
+            HashSet<String> all = new HashSet<>(readGlobals);
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.result != null) { all.add(ins.result); }
+            }
+            atReturn = all;
+        }
+
+        Liveness liveness = new Liveness(cfg, readGlobals, atReturn);
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            BitSet live = (BitSet) liveness.liveOut[block.index].clone();
+            for (int i = block.end - 1; i >= block.start; i--) {
+                TAC.Instruction ins = function.get(i);
+                if (isPure(ins) && !live.get(liveness.id(ins.result))) {
+                    function.set(i, null);
+                    continue;
+                }
+                liveness.transfer(ins, live);
+            }
+        }
+        return function.compact();
+    }
+
+    // Assignments which do nothing but write their result.
+    static boolean isPure(TAC.Instruction ins) {
+        return ins.opcode == TAC.Opcode.COPY  || ins.opcode == TAC.Opcode.UNARY ||
+               ins.opcode == TAC.Opcode.BINARY || ins.opcode == TAC.Opcode.GETPARAM;
+    }
+}
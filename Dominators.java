@@ -0,0 +1,103 @@
+import java.util.*;
+
+/* Which blocks of a function dominate which: a block dominates another
+   when every path from the entry to it goes through it. The immediate
+   dominators make a tree rooted at the entry, and the dominance frontier
+   of a block is where its domination stops, the blocks it does not
+   strictly dominate but one of whose predecessors it dominates.
+   Unreachable blocks are dominated by all and dominate none. */
+class Dominators {
+    final ControlFlowGraph cfg;
+    final BitSet reachable;
+    final BitSet[] dominators; // Of each block, itself included.
+    final int[] idom;          // -1 for the entry and unreachable blocks.
+    final ArrayList<ArrayList<ControlFlowGraph.Block>> children;
+
+    Dominators(ControlFlowGraph cfg) {
+        this.cfg  = cfg;
+        reachable = cfg.reachable();
+        int n     = cfg.blocks.size();
+        dominators = new BitSet[n];
+        idom       = new int[n];
+        children   = new ArrayList<>();
+        for (int i = 0; i < n; i++) { children.add(new ArrayList<>()); }
+        dominate();
+
+        // The closest strict dominator is the one dominated by all others.
+        for (int i = 0; i < n; i++) {
+            idom[i] = -1;
+            if (i == 0 || !reachable.get(i)) { continue; }
+            int count = -1;
+            for (int d = dominators[i].nextSetBit(0); d >= 0; d = dominators[i].nextSetBit(d + 1)) {
+                if (d != i && dominators[d].cardinality() > count) {
+                    count   = dominators[d].cardinality();
+                    idom[i] = d;
+                }
+            }
+            children.get(idom[i]).add(cfg.blocks.get(i));
+        }
+    }
+
+    // Iterated until no set shrinks.
+    private void dominate() {
+        int n = cfg.blocks.size();
+        for (int i = 0; i < n; i++) {
+            dominators[i] = new BitSet(n);
+            if (i == 0) { dominators[i].set(0); }
+            else { dominators[i].set(0, n); }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = reachable.nextSetBit(1); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                BitSet set = new BitSet(n);
+                set.set(0, n);
+                for (ControlFlowGraph.Block previous : cfg.blocks.get(i).predecessors) {
+                    if (reachable.get(previous.index)) { set.and(dominators[previous.index]); }
+                }
+                set.set(i);
+                if (!set.equals(dominators[i])) {
+                    dominators[i] = set;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public boolean dominates(ControlFlowGraph.Block a, ControlFlowGraph.Block b) {
+        return dominators[b.index].get(a.index);
+    }
+
+    // The dominance frontier of each reachable block.
+    public BitSet[] frontiers() {
+        int n = cfg.blocks.size();
+        BitSet[] frontiers = new BitSet[n];
+        for (int i = 0; i < n; i++) { frontiers[i] = new BitSet(n); }
+        for (int b = reachable.nextSetBit(0); b >= 0; b = reachable.nextSetBit(b + 1)) {
+            ControlFlowGraph.Block block = cfg.blocks.get(b);
+            if (block.predecessors.size() < 2) { continue; }
+            for (ControlFlowGraph.Block previous : block.predecessors) {
+                if (!reachable.get(previous.index)) { continue; }
+                for (int runner = previous.index; runner != idom[b]; runner = idom[runner]) {
+                    frontiers[runner].set(b);
+                }
+            }
+        }
+        return frontiers;
+    }
+
+    // The reachable blocks, each before those it dominates.
+    public List<ControlFlowGraph.Block> preorder() {
+        ArrayList<ControlFlowGraph.Block> order = new ArrayList<>();
+        if (cfg.blocks.isEmpty()) { return order; }
+        ArrayDeque<ControlFlowGraph.Block> work = new ArrayDeque<>();
+        work.push(cfg.entry());
+        while (!work.isEmpty()) {
+            ControlFlowGraph.Block block = work.pop();
+            order.add(block);
+            List<ControlFlowGraph.Block> below = children.get(block.index);
+            for (int i = below.size() - 1; i >= 0; i--) { work.push(below.get(i)); }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,129 @@
+import java.lang.invoke.*;
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* Time to run test_files/gcd.ccl and the loop of test_files/mult.ccl for
+   a growing number of iterations, unoptimized, with TACInterpreter, as a
+   class made by BytecodeGenerator and with TACi.jar. Each is also given
+   per instruction the interpreter executes. The class is defined once,
+   then run as many times as the interpreter. TACi runs in its own JVM:
+   the time it takes on an empty program, mostly starting the JVM, is
+   given apart and taken off the others. TACi runs loops recursively, so
+   it fails on long ones. */
+public class ExecutionBenchmark {
+    static final int[] iterations = { 100, 300, 1_000, 3_000_000 };
+
+    static String mult(int n) {
+        return "var x:integer;\n\n" +
+               "integer mult(a:integer, b:integer) {\n" +
+               "    var result:integer;\n" +
+               "    result = 0;\n" +
+               "    while (a > 0) {\n" +
+               "        a = a - 1;\n" +
+               "        result = result + b;\n" +
+               "    }\n" +
+               "    return (result);\n" +
+               "}\n\n" +
+               // A global, for the JIT not to drop the call.
+               "main {\n    x = mult(" + n + ", 7);\n}\n";
+    }
+
+    static TAC compile(String name, String source) {
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        TAC tac = new Compilation(name, source).compile(new PrintStream(report));
+        if (tac == null) { throw new IllegalStateException(name + " does not compile:\n" + report); }
+        return tac;
+    }
+
+    // Nanoseconds, the executed instructions being kept in executed[0].
+    static long interpret(TAC tac, long[] executed) throws IOException {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        TACInterpreter interpreter = new TACInterpreter(tac, out, new ByteArrayInputStream(new byte[0]));
+        long start = System.nanoTime();
+        interpreter.run();
+        long time = System.nanoTime() - start;
+        executed[0] = interpreter.executed();
+        return time;
+    }
+
+    static MethodHandle define(TAC tac) throws ReflectiveOperationException {
+        byte[] bytes = new BytecodeGenerator(tac, "Program").generate();
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        return lookup.findStatic(lookup.lookupClass(), "main", MethodType.methodType(int.class));
+    }
+
+    static long jvm(MethodHandle main) throws Throwable {
+        long start = System.nanoTime();
+        int result = (int) main.invokeExact();
+        return System.nanoTime() - start;
+    }
+
+    static String perInstruction(long nanos, long executed) {
+        return CompileClient.millis(nanos) + " ms (median), " +
+            String.format("%.2f", (double) nanos / executed) + " ns per instruction";
+    }
+
+    // Nanoseconds, or -1 if TACi failed.
+    static long taci(Path jar, Path file) throws IOException, InterruptedException {
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-jar", jar.toString(), file.toString())
+            .redirectErrorStream(true).redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null"))).start();
+        long start = System.nanoTime();
+        String output;
+        try (InputStream in = process.getInputStream()) { output = new String(in.readAllBytes()); }
+        int status = process.waitFor();
+        long time = System.nanoTime() - start;
+        return status != 0 || output.contains("Exception") ? -1 : time;
+    }
+
+    static long taci(Path jar, Path file, int rounds) throws IOException, InterruptedException {
+        long[] times = new long[rounds];
+        for (int r = 0; r < rounds; r++) {
+            if ((times[r] = taci(jar, file)) < 0) { return -1; }
+        }
+        return CacheBenchmark.median(times);
+    }
+
+    public static void main(final String[] args) throws Throwable {
+        Path jar   = Paths.get(args.length > 0 ? args[0] : "TACi.jar");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int warmup = 5;
+
+        LinkedHashMap<String, TAC> programs = new LinkedHashMap<>();
+        programs.put("gcd.ccl", compile("gcd.ccl", new String(Files.readAllBytes(Paths.get("test_files/gcd.ccl")))));
+        for (int n : iterations) { programs.put("mult, " + n + " iterations", compile("mult.ccl", mult(n))); }
+
+        Path directory = Files.createTempDirectory("execution-benchmark");
+        Path empty = directory.resolve("empty.tac");
+        TACEmitter.write(compile("empty.ccl", "main { }\n"), empty);
+        long startup = taci(jar, empty, rounds);
+        System.out.println("TACi.jar on an empty program: " + CompileClient.millis(startup) +
+            " ms (median of " + rounds + "), taken off below.");
+
+        long[] executed = new long[1];
+        for (Map.Entry<String, TAC> program : programs.entrySet()) {
+            MethodHandle main = define(program.getValue());
+            long[] times = new long[rounds], compiled = new long[rounds];
+            for (int r = -warmup; r < rounds; r++) {
+                long time = interpret(program.getValue(), executed);
+                long run  = jvm(main);
+                if (r >= 0) {
+                    times[r]    = time;
+                    compiled[r] = run;
+                }
+            }
+            long interpreted = CacheBenchmark.median(times);
+
+            Path file = directory.resolve("program.tac");
+            TACEmitter.write(program.getValue(), file);
+            long taci = taci(jar, file, rounds);
+
+            System.out.println(program.getKey() + ", " + executed[0] + " instructions:");
+            System.out.println("  in-process: " + perInstruction(interpreted, executed[0]));
+            System.out.println("  JVM class:  " + perInstruction(CacheBenchmark.median(compiled), executed[0]));
+            System.out.println("  TACi.jar:   " + (taci < 0 ? "failed" :
+                perInstruction(Math.max(taci - startup, 0), executed[0])));
+        }
+    }
+}
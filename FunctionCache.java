@@ -0,0 +1,286 @@
+import org.antlr.v4.runtime.*;
+
+import java.util.concurrent.atomic.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* What compiling each function gave, kept on disk between compilations:
+   the results of its semantic check and its code before optimization.
+   An entry is found by a hash of the tokens of the function and of the
+   global entities it names as they are before the bodies are checked,
+   see CCALSemanticAnalyser.analyseInParallel: a function with the same
+   hash is checked and generated the same. Names are local to their
+   function (see Names), so the code does not depend on where the
+   function is in the file.
+
+   Entries are written to a temporary file and moved in place, so that
+   compilations sharing the directory never read half an entry. An entry
+   which cannot be read is a miss. The entries last used are also kept
+   in memory, as bytes: the code read from them is a copy each time,
+   which the optimizations can change. */
+class FunctionCache {
+    private static final int version = 5;
+    private static final int inMemory = 1 << 14; // Entries kept in memory.
+
+    final Path directory; // Null if the entries are only kept in memory.
+    private final AtomicInteger hits, misses;
+    private final Map<String, byte[]> recent;
+
+    // A function which does not parse on its own, see Unit.tree().
+    static class ParseFailure extends RuntimeException {
+        ParseFailure(String name) { super(name + " does not parse"); }
+    }
+
+    /* A function of the program, given by its tree or by its tokens, in
+       which case it is only parsed when needed. */
+    static class Unit {
+        final String name;
+        private final List<Token> tokens;
+        private CCALParser.FuncContext tree;
+        String key;    // Of its entry, null if not cached.
+        Entry entry;   // Found in the cache, or to store there.
+        boolean found; // Whether the entry was found.
+
+        Unit(CCALParser.FuncContext tree) {
+            this.tree = tree;
+            name      = tree.ID().getText();
+            tokens    = null;
+        }
+
+        // The tokens go from the return type to the closing brace.
+        Unit(List<Token> tokens) {
+            this.tokens = tokens;
+            name        = tokens.get(1).getText();
+        }
+
+        CCALParser.FuncContext tree() {
+            if (tree == null) {
+                tree = SyntaxAnalyser.parse(tokens, CCALParser::func);
+                if (tree == null) { throw new ParseFailure(name); }
+            }
+            return tree;
+        }
+
+        // The code of the function, if known.
+        TAC.Function code() { return entry != null ? entry.code : null; }
+
+        // Its tree, null if it was not parsed.
+        CCALParser.FuncContext parsed() { return tree; }
+
+        // The identifiers the function names, itself included.
+        Set<String> ids() {
+            TreeSet<String> ids = new TreeSet<>();
+            for (Token token : tokens) {
+                if (token.getType() == CCALParser.ID) { ids.add(token.getText()); }
+            }
+            return ids;
+        }
+
+        String text() {
+            StringBuilder text = new StringBuilder();
+            for (Token token : tokens) { text.append(token.getText()).append(' '); }
+            return text.toString();
+        }
+    }
+
+    static class Entry {
+        final CCALSemanticAnalyser.FunctionResult result;
+        TAC.Function code; // Null until the function is generated.
+
+        Entry(CCALSemanticAnalyser.FunctionResult result, TAC.Function code) {
+            this.result = result;
+            this.code   = code;
+        }
+    }
+
+    FunctionCache(Path directory) throws IOException {
+        this.directory = directory;
+        if (directory != null) { Files.createDirectories(directory); }
+        hits   = new AtomicInteger();
+        misses = new AtomicInteger();
+        recent = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > inMemory;
+            }
+        });
+    }
+
+    public int hits()   { return hits.get();   }
+    public int misses() { return misses.get(); }
+
+    // The scope is what the global entities the function names are.
+    public String key(Unit unit, String scope) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((version + "\n" + unit.text() + "\n" + scope).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+
+    public Entry load(String key) {
+        try {
+            byte[] bytes = recent.get(key);
+            if (bytes == null && directory != null) {
+                Path path = directory.resolve(key);
+                if (Files.exists(path)) {
+                    bytes = Files.readAllBytes(path);
+                    recent.put(key, bytes);
+                }
+            }
+            if (bytes != null) {
+                Entry entry = read(new DataInputStream(new ByteArrayInputStream(bytes)));
+                hits.incrementAndGet();
+                return entry;
+            }
+        } catch (IOException | RuntimeException e) { }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void store(String key, Entry entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write(entry, new DataOutputStream(bytes));
+            recent.put(key, bytes.toByteArray());
+            if (directory == null) { return; }
+
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, directory.resolve(key),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The function is compiled again next time.
+        }
+    }
+
+    private static void write(Entry entry, DataOutputStream out) throws IOException {
+        CCALSemanticAnalyser.FunctionResult result = entry.result;
+        out.writeInt(version);
+        out.writeUTF(result.name);
+        out.writeUTF(result.returnType);
+        out.writeInt(result.arguments);
+        out.writeBoolean(result.kindChanged);
+        out.writeInt(result.symbols);
+        writeList(result.errors, out);
+        writeList(result.pending, out);
+        writeList(result.warnings, out);
+        writeList(result.globalWrites, out);
+        writeList(result.calls, out);
+
+        TAC.Function code = entry.code;
+        out.writeBoolean(code != null);
+        if (code == null) { return; }
+        out.writeUTF(code.name);
+        out.writeInt(code.params);
+        out.writeInt(code.labels());
+        for (int l = 0; l < code.labels(); l++) { out.writeUTF(code.labelName(l)); }
+        writeList(new ArrayList<>(code.temporaries), out);
+        out.writeInt(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            TAC.Instruction ins = code.get(i);
+            out.writeByte(ins.opcode.ordinal());
+            out.writeByte(ins.operator != null ? ins.operator.ordinal() : -1);
+            writeString(ins.result, out);
+            writeString(ins.left, out);
+            writeString(ins.right, out);
+            out.writeInt(ins.value);
+        }
+    }
+
+    private static Entry read(DataInputStream in) throws IOException {
+        if (in.readInt() != version) { throw new IOException("old entry"); }
+        CCALSemanticAnalyser.FunctionResult result = new CCALSemanticAnalyser.FunctionResult(
+            in.readUTF(), in.readUTF(), in.readInt());
+        result.kindChanged = in.readBoolean();
+        result.symbols     = in.readInt();
+        readList(result.errors, in);
+        readList(result.pending, in);
+        readList(result.warnings, in);
+        readList(result.globalWrites, in);
+        readList(result.calls, in);
+        if (!in.readBoolean()) { return new Entry(result, null); }
+
+        TAC.Function code = new TAC.Function(in.readUTF());
+        code.params = in.readInt();
+        int labels = in.readInt();
+        for (int l = 0; l < labels; l++) { code.newLabel(in.readUTF()); }
+        readList(code.temporaries, in);
+        int size = in.readInt();
+        ArrayList<TAC.Instruction> instructions = new ArrayList<>(size);
+        TAC.Opcode[] opcodes = TAC.Opcode.values();
+        TAC.Operator[] operators = TAC.Operator.values();
+        for (int i = 0; i < size; i++) {
+            TAC.Opcode opcode = opcodes[in.readByte()];
+            byte operator = in.readByte();
+            String res = readString(in), left = readString(in), right = readString(in);
+            instructions.add(new TAC.Instruction(opcode, res, left,
+                operator >= 0 ? operators[operator] : null, right, in.readInt()));
+        }
+        code.setCode(instructions);
+        return new Entry(result, code);
+    }
+
+    // Atoms and identifiers are never empty, which stands for null.
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        out.writeUTF(s != null ? s : "");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        String s = in.readUTF();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static void writeList(Collection<String> list, DataOutputStream out) throws IOException {
+        out.writeInt(list.size());
+        for (String s : list) { writeString(s, out); }
+    }
+
+    private static void readList(Collection<String> list, DataInputStream in) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) { list.add(readString(in)); }
+    }
+
+    /* Split the tokens of a program into its global declarations, each
+       function and main, in this order, from the tokens alone: a function
+       starts with a type, an identifier and a parenthesis, and ends with
+       the brace closing its first one. Null if the program does not have
+       this shape, then it is parsed as a whole. */
+    static List<List<Token>> split(List<Token> tokens) {
+        int n = tokens.size();
+        if (n > 0 && tokens.get(n - 1).getType() == Token.EOF) { n--; }
+        ArrayList<List<Token>> parts = new ArrayList<>();
+
+        int i = 0;
+        while (i < n && !startsFunction(tokens, i) && tokens.get(i).getType() != CCALParser.MAIN) { i++; }
+        parts.add(tokens.subList(0, i));
+        while (i < n && startsFunction(tokens, i)) {
+            int start = i, depth = 0;
+            boolean opened = false;
+            for (; i < n && !(opened && depth == 0); i++) {
+                int type = tokens.get(i).getType();
+                if (type == CCALParser.LBRA) { depth++; opened = true; }
+                if (type == CCALParser.RBRA) { depth--; }
+            }
+            if (!opened || depth != 0) { return null; }
+            parts.add(tokens.subList(start, i));
+        }
+        if (i == n || tokens.get(i).getType() != CCALParser.MAIN) { return null; }
+        parts.add(tokens.subList(i, n));
+        return parts;
+    }
+
+    private static boolean startsFunction(List<Token> tokens, int i) {
+        int type = tokens.get(i).getType();
+        return (type == CCALParser.INTEGER || type == CCALParser.BOOL || type == CCALParser.VOID) &&
+               i + 2 < tokens.size() && tokens.get(i + 1).getType() == CCALParser.ID &&
+               tokens.get(i + 2).getType() == CCALParser.LPAREN;
+    }
+}
@@ -0,0 +1,57 @@
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.*;
+
+/* Cost of generating the code of an expression node, for chains of
+   growing length: a + b - a + b ... in assignments, and a > b && b < a
+   ... in conditions. The number of operators is the same for every
+   length, so the time per operator stays the same as long as each node
+   is lowered once. Only IRCodeGenerator is measured, the program being
+   parsed beforehand. */
+public class GenerationBenchmark {
+    static final int[] lengths = { 4, 16, 64, 256, 1024 };
+
+    static String chain(int length, String first, String second, String[] operators) {
+        StringBuilder chain = new StringBuilder(first);
+        for (int i = 0; i < length; i++) {
+            chain.append(' ').append(operators[i % 2]).append(' ').append(i % 2 == 0 ? second : first);
+        }
+        return chain.toString();
+    }
+
+    // Statements of the given length, with about that many operators in all.
+    static String program(int length, int operators) {
+        StringBuilder source = new StringBuilder("integer f(a:integer, b:integer) {\n    var r:integer;\n");
+        String[] arith = { "+", "-" }, logical = { "&&", "||" };
+        for (int i = 0; i < operators / (2 * length); i++) {
+            source.append("    r = ").append(chain(length, "a", "b", arith)).append(";\n");
+            source.append("    if ").append(chain(length, "a > b", "b < a", logical))
+                  .append(" { r = a; } else { skip; }\n");
+        }
+        source.append("    return (r);\n}\n\nmain {\n    var x:integer;\n    x = f(1, 2);\n}\n");
+        return source.toString();
+    }
+
+    public static void main(final String[] args) {
+        int operators = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int rounds    = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int warmup    = 5;
+
+        System.out.println(operators + " operators, " + rounds + " rounds:");
+        for (int length : lengths) {
+            ParseTree tree = new SyntaxAnalyser("program.ccl", program(length, operators)).parse();
+            if (tree == null) { throw new IllegalStateException("the program does not parse"); }
+            int n = operators / (2 * length) * 2 * length;
+
+            long[] times = new long[rounds];
+            for (int r = -warmup; r < rounds; r++) {
+                long start = System.nanoTime();
+                new IRCodeGenerator(tree).generate();
+                if (r >= 0) { times[r] = System.nanoTime() - start; }
+            }
+            long median = CacheBenchmark.median(times);
+            System.out.println("length " + length + ": " + CompileClient.millis(median) + " ms (median), " +
+                String.format("%.1f", (double) median / n) + " ns per operator");
+        }
+    }
+}
@@ -1,443 +1,511 @@
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.concurrent.*;
 import java.util.*;
 
 public class IRCodeGenerator {
-    final Visitor visitor;
     final ParseTree tree;
-    StringBuilder result; // The intermediate code is stored here.
+    final ForkJoinPool pool;
+    final TAC result; // The intermediate code is stored here.
+    private Set<String> functions; // Those to generate, all if null.
+    private Stats stats = Stats.none;
 
-    IRCodeGenerator(ParseTree tree) {
+    IRCodeGenerator(ParseTree tree) { this(tree, ForkJoinPool.commonPool()); }
+
+    IRCodeGenerator(ParseTree tree, ForkJoinPool pool) {
         this.tree = tree;
-        visitor   = new Visitor();
-        result    = new StringBuilder();
+        this.pool = pool;
+        result    = new TAC();
+    }
+
+    // Only generate these functions, the others are never called.
+    public IRCodeGenerator onlyFunctions(Set<String> functions) {
+        this.functions = functions;
+        return this;
+    }
+
+    // Each function generated is measured as part of the generation.
+    public IRCodeGenerator withStats(Stats stats) {
+        this.stats = stats;
+        return this;
     }
 
-    public String generate() { 
-        visitor.visit(tree); 
-        return result.toString(); 
+    /* Each function has its own visitor and its own names, so that
+       functions can be generated in parallel. They are added to the
+       result in source order, main being the last one, so the output
+       does not depend on the number of threads. */
+    public TAC generate() { 
+        CCALParser.ProgramContext program = (CCALParser.ProgramContext) tree;
+        ArrayList<FunctionCache.Unit> units = new ArrayList<>();
+        for (CCALParser.FuncContext func : program.func_list().func()) {
+            units.add(new FunctionCache.Unit(func));
+        }
+        return generate(program.decl_list(), units, program.main());
     }
 
-    private class Visitor extends CCALBaseVisitor<String> {
-        int labelIndex, condIndex, tempVarIndex, funcCount;
-        Stack<String> globalConstants, functionParams;
-        Stack<HashMap<String, String>> funcVariables;
+    /* Generate a program given by parts, the tree being null. The code of
+       a function may be known already, see FunctionCache, else it is
+       generated and kept in its entry, if it has one. */
+    public TAC generate(CCALParser.Decl_listContext decls, List<FunctionCache.Unit> units,
+                        CCALParser.MainContext main) {
+        ArrayList<FunctionCache.Unit> generated = new ArrayList<>();
+        ArrayList<ForkJoinTask<TAC.Function>> tasks = new ArrayList<>(); // Null if known.
+        for (final FunctionCache.Unit unit : units) {
+            if (functions != null && !functions.contains(unit.name)) { continue; }
+            generated.add(unit);
+            if (unit.code() != null) {
+                tasks.add(null);
+                continue;
+            }
+            final CCALParser.FuncContext func = unit.tree();
+            tasks.add(pool.submit(() -> stats.measure("generation", () -> {
+                Visitor visitor = new Visitor(Names.function(unit.name));
+                visitor.visit(func);
+                if (unit.entry != null) { unit.entry.code = visitor.function; }
+                return visitor.function;
+            })));
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            ForkJoinTask<TAC.Function> task = tasks.get(i);
+            result.functions.add(task != null ? task.join() : generated.get(i).code());
+        }
+
+        Visitor visitor = new Visitor("main");
+        stats.measure("generation", () -> visitor.visitProgram(decls, main));
+        result.functions.add(visitor.function);
+        return result; 
+    }
+
+    /* Expressions are visited to their right-hand side, an instruction
+       without result: a COPY of an atom, or the operation to perform. */
+    private class Visitor extends CCALBaseVisitor<TAC.Instruction> {
+        Stack<String> functionParams;
+        HashMap<String, String> funcVariables;
         ArrayList<String> args;
+        TAC.Function function; // The function being generated.
         boolean funcCtx;
 
-        Visitor() {
-            labelIndex = condIndex = tempVarIndex = funcCount = 1;
-            globalConstants = new Stack<>();
+        Visitor(String name) {
             functionParams = new Stack<>();
-            funcVariables = new Stack<>();
+            funcVariables = new HashMap<>();
             args = new ArrayList<>();
+            function = new TAC.Function(name);
             funcCtx = false;
         }
 
-        // Make an id unique in a function.
-        String makeUnique(String id) {
-            String result = id;
-            for (int i = 0; i < funcCount; i++) { result += "_"; }
-            return result;
-        }
+        // The name of a local of the function, see Names.
+        String makeUnique(String id) { return Names.local(function.name, id); }
 
-        // Make a label unique.
-        String makeUniqueLabel(int i) {
-            String label = "L";
-            for (int und = labelIndex; und > 0; und--) { label += "_"; und--; }
-            return label + i;
+        // Make a new label, unique in the program.
+        int newLabel() {
+            return function.newLabel(Names.label(function.name, function.labels() + 1));
         }
 
-        // Convert an arithmetic expression to TAC. 
-        String convertArithOpExpr(final String expr) {
-            String[] split = expr
-                .replaceAll("\\(|\\)", "")
-                .replaceAll("\\+", " \\+ ")
-                .replaceAll("-", " - ")
-                .split(" ");
-
-            // For some reasons this case must be handled.
-            if (split.length == 1) { 
-                String a1 = split[0];
-                if (funcCtx && funcVariables.peek().containsKey(split[0])) {
-                        a1 = funcVariables.peek().get(split[0]);
-                }
-                return a1; 
-            }
-
-            // Expression is in the form "A op B".
-            if (split.length == 3) { 
-                String a1 = split[0], a2 = split[2];
-                if (funcCtx) {
-                    if (funcVariables.peek().containsKey(split[0])) {
-                        a1 = funcVariables.peek().get(split[0]);
-                    }
-                    if (funcVariables.peek().containsKey(split[2])) {
-                        a2 = funcVariables.peek().get(split[2]);
-                    }
-                }
-                return a1 + " " + split[1] + " " + a2; 
-            }
+        String newTemp() { return function.newTemporary(); }
 
-            Stack<String> s = new Stack<>();
+        void emit(TAC.Instruction instruction) { function.add(instruction); }
 
-            for (int i = split.length-1; i >= 0; i--) { 
-                if (funcCtx && funcVariables.peek().containsKey(split[i])) {
-                        s.push(funcVariables.peek().get(split[i])); 
-                } else { s.push(split[i]); }
-            }
-
-            String a1 = s.pop();
-            String op = s.pop();
-            String a2 = s.pop();
-
-            String ti = "t" + tempVarIndex;
-            result.append(ti + " = " + a1 + " " + op + " " + a2 + "\n");
-            s.push(ti);
-
-            while (s.size() > 2) {
-                tempVarIndex++;
-                ti  = "t" + tempVarIndex;
-                a1  = s.pop();
-                op  = s.pop();
-                a2  = s.pop();
-                result.append(ti + " = " + a1 + " " + op + " " + a2 + "\n");
-                s.push(ti);
+        // Get the name an id has in the current function, if any.
+        String resolve(String id) {
+            if (funcCtx && funcVariables.containsKey(id)) {
+                return funcVariables.get(id);
             }
+            return Names.global(id);
+        }
 
-            tempVarIndex++;
-            return s.peek();
+        /* Lower an expression to an atom, storing it in a new
+           temporary if it is not one already. */
+        String lowerToAtom(CCALParser.ExprContext ctx) {
+            TAC.Instruction value = visit(ctx);
+            if (value.opcode == TAC.Opcode.COPY) { return value.left; }
+            String ti = newTemp();
+            value.result = ti;
+            emit(value);
+            return ti;
         }
 
-        @Override
-        public String visitProgram(CCALParser.ProgramContext ctx) {
-            funcCtx = true;
-            visit(ctx.func_list());
-            /* We want our global variables to be after the main label,
-               so we visit the function declarations first. */
-            result.append("\nmain:\n");
+        /* Functions are generated on their own, the program is left with
+           the global declarations, which are part of main. */
+        void visitProgram(CCALParser.Decl_listContext decls, CCALParser.MainContext main) {
             funcCtx = false;
-            visit(ctx.decl_list());
+            visit(decls);
             funcCtx = true;
-            return visit(ctx.main());
+            visit(main);
         }
 
         @Override
-        public String visitDecl_list(CCALParser.Decl_listContext ctx) {
-            if (ctx.decl(0) != null) { 
-                String decl = visit(ctx.decl(0));
-                if (decl != null) { globalConstants.add(decl); }
-            }
-            if (ctx.decl_list(0) != null) { visit(ctx.decl_list(0)); }
+        public TAC.Instruction visitDecl_list(CCALParser.Decl_listContext ctx) {
+            for (CCALParser.DeclContext decl : ctx.decl()) { visit(decl); }
             return null;
         }
 
         @Override
-        public String visitVar_decl(CCALParser.Var_declContext ctx) { 
+        public TAC.Instruction visitVar_decl(CCALParser.Var_declContext ctx) { 
             /* If in func context, make its label unique and save it
                else, do nothing, the used TAC interpreter is dynamically typed. */
             if (funcCtx) {
                 String id = ctx.ID().getText();
                 String og = id;
                 id = makeUnique(id);
-                funcVariables.peek().put(og, id);
-            }
+                funcVariables.put(og, id);
+            } else { result.globals.add(Names.global(ctx.ID().getText())); }
             return null; 
         }
 
         @Override
-        public String visitConst_decl(CCALParser.Const_declContext ctx) {
+        public TAC.Instruction visitConst_decl(CCALParser.Const_declContext ctx) {
             String id = ctx.ID().getText();
             // If in func context, must be made unique.
             if (funcCtx) {
                 String og = id;
                 id = makeUnique(id);
-                funcVariables.peek().put(og, id);
+                funcVariables.put(og, id);
+            } else {
+                id = Names.global(id);
+                result.globals.add(id);
             }
-            String value = convertArithOpExpr(ctx.expr().getText());
-            return id + " = " + value;
-        }
-
-        @Override
-        public String visitFunc_list(CCALParser.Func_listContext ctx) {
-            if (ctx.func(0) != null)      { visit(ctx.func(0)); }
-            if (ctx.func_list(0) != null) { visit(ctx.func_list(0)); }
+            TAC.Instruction value = visit(ctx.expr());
+            value.result = id;
+            emit(value);
             return null;
         }
 
         @Override
-        public String visitFunc(CCALParser.FuncContext ctx) {
-            String funcID = ctx.ID().getText();
-            result.append("\n" + funcID + ":\n");
-            funcVariables.push(new HashMap<String, String>());
+        public TAC.Instruction visitFunc(CCALParser.FuncContext ctx) {
             visit(ctx.param_list());
             funcCtx = true;
             visit(ctx.decl_list());
             int i = 1;
+            ArrayList<String> params = new ArrayList<>();
             while (!functionParams.isEmpty()) {
                 String param = functionParams.pop();
-                result.append(param + " = getparam " + i + "\n");
+                emit(TAC.Instruction.getparam(param, i));
+                params.add(param);
                 i++;
             }
+            function.params = params.size();
+            int entry = function.size();
             visit(ctx.stmt_block());
-            String ret = visit(ctx.expr());
-            result.append("return " + ret + "\n");
-            funcVariables.pop();
-            funcCount++;
+            String ret = ctx.expr() != null ? lowerToAtom(ctx.expr()) : null;
+            emit(TAC.Instruction.ret(ret));
+            eliminateTailCalls(params, entry);
             return null;
         }
 
+        /* A call of the function to itself whose result is returned right
+           away becomes a jump back to after the getparams, the params
+           being assigned the arguments first: the recursion then runs in
+           a single frame. params are in getparam order. */
+        void eliminateTailCalls(ArrayList<String> params, int entry) {
+            int n = params.size();
+            int[] positions = new int[function.labels()];
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode == TAC.Opcode.LABEL) { positions[ins.value] = i; }
+            }
+
+            ArrayList<TAC.Instruction> code = new ArrayList<>();
+            int start = -1;
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.opcode != TAC.Opcode.CALL || !ins.left.equals(function.name) ||
+                    !isReturned(i, ins.result, positions)) {
+                    code.add(ins);
+                    continue;
+                }
+                if (start < 0) { start = newLabel(); }
+
+                // The args were pushed just before, the last one is getparam 1.
+                String[] args = new String[n];
+                for (int k = 0; k < n; k++) { args[k] = function.get(i - n + k).left; }
+                code.subList(code.size() - n, code.size()).clear();
+
+                // Args reading a param which is reassigned are saved first.
+                HashSet<String> reassigned = new HashSet<>();
+                for (int k = 0; k < n; k++) {
+                    if (!args[n - 1 - k].equals(params.get(k))) { reassigned.add(params.get(k)); }
+                }
+                for (int k = 0; k < n; k++) {
+                    if (!reassigned.contains(args[k])) { continue; }
+                    String saved = newTemp();
+                    code.add(TAC.Instruction.copy(saved, args[k]));
+                    args[k] = saved;
+                }
+                for (int k = 0; k < n; k++) {
+                    String param = params.get(k), arg = args[n - 1 - k];
+                    if (!arg.equals(param)) { code.add(TAC.Instruction.copy(param, arg)); }
+                }
+                code.add(TAC.Instruction.jump(start));
+            }
+            if (start < 0) { return; }
+
+            code.add(entry, TAC.Instruction.label(start));
+            function.setCode(code);
+        }
+
+        // Whether the code from after a call returns its result unchanged.
+        boolean isReturned(int call, String result, int[] positions) {
+            int steps = 0;
+            for (int i = call + 1; i < function.size() && steps <= function.size(); steps++) {
+                TAC.Instruction ins = function.get(i);
+                switch (ins.opcode) {
+                    case LABEL:
+                        i++;
+                        break;
+                    case GOTO:
+                        i = positions[ins.value];
+                        break;
+                    case RETURN:
+                        return ins.left == null || ins.left.equals(result);
+                    default:
+                        return false;
+                }
+            }
+            return false;
+        }
+
         @Override
-        public String visitStmt_block(CCALParser.Stmt_blockContext ctx) {
-            if (ctx.stmt(0) != null)       { visit(ctx.stmt(0));       }
-            if (ctx.stmt_block(0) != null) { visit(ctx.stmt_block(0)); }
+        public TAC.Instruction visitStmt_block(CCALParser.Stmt_blockContext ctx) {
+            for (CCALParser.StmtContext stmt : ctx.stmt()) { visit(stmt); }
             return null;
         }
 
         @Override
-        public String visitAssignmentStmt(CCALParser.AssignmentStmtContext ctx) {
+        public TAC.Instruction visitAssignmentStmt(CCALParser.AssignmentStmtContext ctx) {
             return visit(ctx.assignment());
         }
 
         @Override
-        public String visitAssignment(CCALParser.AssignmentContext ctx) {
-            String expr = visit(ctx.expr());
-            if (expr != null) {
-                String id = ctx.ID().getText();
-                if (funcCtx && funcVariables.peek().containsKey(id)) {
-                    String _id = funcVariables.peek().get(id);
-                    result.append(_id + " = "  + expr + "\n");
-                } else { result.append(id + " = "  + expr + "\n"); }
-            }
+        public TAC.Instruction visitAssignment(CCALParser.AssignmentContext ctx) {
+            TAC.Instruction expr = visit(ctx.expr());
+            expr.result = resolve(ctx.ID().getText());
+            emit(expr);
             return null;
         }
 
         @Override
-        public String visitParam_list(CCALParser.Param_listContext ctx) {
-            if (ctx.parameter_list(0) != null) { visit(ctx.parameter_list(0)); }
+        public TAC.Instruction visitParam_list(CCALParser.Param_listContext ctx) {
+            for (CCALParser.ParamContext param : ctx.param()) { visit(param); }
             return null;
         }
 
         @Override
-        public String visitSingleParam(CCALParser.SingleParamContext ctx) {
-            return visit(ctx.param());
-        }
-
-        @Override
-        public String visitLoopStmt(CCALParser.LoopStmtContext ctx) {
+        public TAC.Instruction visitLoopStmt(CCALParser.LoopStmtContext ctx) {
             return visit(ctx.loop());
         }
 
+        /* The condition is tested after the body, which is jumped to
+           while it holds: one jump per iteration instead of two. */
         @Override
-        public String visitLoop(CCALParser.LoopContext ctx) {
-            String label1 = makeUniqueLabel(1);
-            String label2 = makeUniqueLabel(2);
-            result.append(label1 + ": \n");
-            labelIndex += 2;
-            String condition = getCondition(ctx.condition());
-            result.append("ifz " + condition + " goto " + label2 + "\n");
-            labelIndex += 2;
+        public TAC.Instruction visitLoop(CCALParser.LoopContext ctx) {
+            int label1 = newLabel();
+            int label2 = newLabel();
+            emit(TAC.Instruction.jump(label2));
+            emit(TAC.Instruction.label(label1));
             visit(ctx.stmt_block());
-            result.append("goto " + label1 + "\n");
-            result.append(label2 + ":\n");
+            emit(TAC.Instruction.label(label2));
+            branch(ctx.condition(), label1, true);
             return null;
         }
 
         @Override
-        public String visitIfElseStmt(CCALParser.IfElseStmtContext ctx) {
+        public TAC.Instruction visitIfElseStmt(CCALParser.IfElseStmtContext ctx) {
             return visit(ctx.if_else());
         }
 
 
+        /* The operands are lowered first, so that the expression
+           itself is always in the form "A op B". */
+        @Override
+        public TAC.Instruction visitArithOpExpr(CCALParser.ArithOpExprContext ctx) {
+            String a1 = lowerToAtom(ctx.expr(0));
+            String a2 = lowerToAtom(ctx.expr(1));
+            TAC.Operator op = TAC.Operator.of(ctx.arith_op().getText());
+            return TAC.Instruction.binary(null, a1, op, a2);
+        }
+
+        @Override
+        public TAC.Instruction visitLogOpExpr(CCALParser.LogOpExprContext ctx) {
+            String a1 = lowerToAtom(ctx.expr(0));
+            String a2 = lowerToAtom(ctx.expr(1));
+            TAC.Operator op = TAC.Operator.of(ctx.bin_logical_op().getText());
+            return TAC.Instruction.binary(null, a1, op, a2);
+        }
+
+        @Override
+        public TAC.Instruction visitParenExpr(CCALParser.ParenExprContext ctx) {
+            return visit(ctx.expr());
+        }
+
         @Override
-        public String visitArithOpExpr(CCALParser.ArithOpExprContext ctx) {
-            return convertArithOpExpr(ctx.getText());
+        public TAC.Instruction visitFuncCallExpr(CCALParser.FuncCallExprContext ctx) {
+            return visit(ctx.func_call());
         }
 
         @Override
-        public String visitFragExpr(CCALParser.FragExprContext ctx) {
+        public TAC.Instruction visitFragExpr(CCALParser.FragExprContext ctx) {
             return visit(ctx.frag());
         }
 
         @Override
-        public String visitNotIdFrag(CCALParser.NotIdFragContext ctx) {
-            return "!" + ctx.ID().getText();
+        public TAC.Instruction visitNotIdFrag(CCALParser.NotIdFragContext ctx) {
+            String id = resolve(ctx.ID().getText());
+            return TAC.Instruction.unary(null, TAC.Operator.NOT, id);
         }
 
         @Override
-        public String visitZeroFrag(CCALParser.ZeroFragContext ctx) {
-            return "0";
+        public TAC.Instruction visitZeroFrag(CCALParser.ZeroFragContext ctx) {
+            return TAC.Instruction.copy(null, "0");
         }
 
         @Override
-        public String visitIdNumFrag(CCALParser.IdNumFragContext ctx) {
-            if (ctx.NUM() != null) { 
-                if (ctx.MINUS() != null) { return "0 - " + ctx.NUM().getText(); }
-                return ctx.NUM().getText(); 
+        public TAC.Instruction visitIdNumFrag(CCALParser.IdNumFragContext ctx) {
+            String value = ctx.NUM() != null ? 
+                ctx.NUM().getText() : resolve(ctx.ID().getText());
+            if (ctx.MINUS() != null) { 
+                return TAC.Instruction.binary(null, "0", TAC.Operator.MINUS, value);
             }
-            String id = ctx.ID().getText();
-            if (funcCtx) { id = funcVariables.peek().get(id); }
-            if (ctx.MINUS() != null) { return "0 - " + id; }
-            return id;
-        }
-
-        String replaceConditionVars(String cond) {
-            String condition = cond.replaceAll("[_a-zA-Z0-9\\(\\)]*", "");
-            String[] split = cond.split(condition);
-            String res = "";
-            if (funcVariables.peek().containsKey(split[0])) {
-                res += funcVariables.peek().get(split[0]);
-            } else { res += split[0]; }
-            res += condition;
-
-            if (funcVariables.peek().containsKey(split[1])) {
-                res += funcVariables.peek().get(split[1]);
-            } else { res += split[1]; }
-
-            return res;
-        }
-
-        String getCondition(CCALParser.ConditionContext ctx) {
-            labelIndex++;
-            String[] split = ctx.getText()
-                .replaceAll("\\(", "")
-                .replaceAll("\\)", "")
-                .replaceAll("&&", " && ")
-                .replaceAll("\\|\\|", " \\|\\| ")
-                .split(" ")
-            ;
-
-            Stack<String> conditions = new Stack<>();
-            Stack<String> newConditions = new Stack<>();
-            Stack<String> operators = new Stack<>();
-
-            for (String s : split) {
-                if (s.equals("&&") || s.equals("||")) { operators.push(s); } 
-                else { conditions.push(s); }
+            return TAC.Instruction.copy(null, value);
+        }
+
+        /* Lower a condition to jumping code: jump to the label when the
+           condition is equal to jumpWhen, else fall through. Operands are
+           evaluated from left to right, and only as far as needed. */
+        void branch(CCALParser.ConditionContext ctx, int label, boolean jumpWhen) {
+            if (ctx instanceof CCALParser.ParenCondContext) {
+                branch(((CCALParser.ParenCondContext) ctx).condition(), label, jumpWhen);
+                return;
             }
 
-            int i = 1;
-            while (!conditions.empty()) {
-                String label = makeUniqueLabel(i);
-
-                String cond = conditions.pop();
-                cond = replaceConditionVars(cond);
-                String c = "c" + condIndex;
-                newConditions.push(c);
-
-                result.append(c + " = false\n");
-                result.append("ifz " + cond + " goto " + label + "\n");
-                result.append(c + " = true\n");
-                result.append(label + ":\n");
-                condIndex++;
-                i++;
+            if (ctx instanceof CCALParser.BoolValCondContext) {
+                boolean value = ctx.getText().equals("true");
+                if (value == jumpWhen) { emit(TAC.Instruction.jump(label)); }
+                return;
+            }
+
+            if (ctx instanceof CCALParser.NegCondContext) {
+                branch(((CCALParser.NegCondContext) ctx).condition(), label, !jumpWhen);
+                return;
             }
 
-            String c = "c" + condIndex;
-            while (newConditions.size() > 1) {
-                c = "c" + condIndex;
-                String op = operators.pop();
-                String cA = newConditions.pop();
-                String cB = newConditions.pop();
-                replaceConditionVars(cA);
-                result.append(c + " = " + cA + " " + op + " " + cB + "\n");
-                newConditions.push(c);
-                condIndex++;
+            if (ctx instanceof CCALParser.BinOpCondContext) {
+                CCALParser.BinOpCondContext bin = (CCALParser.BinOpCondContext) ctx;
+                TAC.Operator op = TAC.Operator.of(bin.bin_logical_op().getText());
+                // a && b is false as soon as a is, a || b true as soon as a is.
+                boolean decides = op == TAC.Operator.OR;
+                if (decides == jumpWhen) {
+                    branch(bin.condition(0), label, jumpWhen);
+                    branch(bin.condition(1), label, jumpWhen);
+                } else {
+                    int skip = newLabel();
+                    branch(bin.condition(0), skip, decides);
+                    branch(bin.condition(1), label, jumpWhen);
+                    emit(TAC.Instruction.label(skip));
+                }
+                return;
+            }
+
+            // Comparison, in the form "A op B".
+            String a1, a2;
+            TAC.Operator op;
+            if (ctx instanceof CCALParser.CompOpCondContext) {
+                CCALParser.CompOpCondContext comp = (CCALParser.CompOpCondContext) ctx;
+                a1 = lowerToAtom(comp.expr(0));
+                a2 = lowerToAtom(comp.expr(1));
+                op = TAC.Operator.of(comp.comp_op().getText());
+            } else {
+                CCALParser.EqualDifOpCondContext comp = (CCALParser.EqualDifOpCondContext) ctx;
+                a1 = lowerToAtom(comp.expr(0));
+                a2 = lowerToAtom(comp.expr(1));
+                op = TAC.Operator.of(comp.comp_op_().getText());
             }
 
-            return newConditions.peek() + " == true";
+            // ifz jumps when the comparison is false.
+            if (jumpWhen) { op = negate(op); }
+            emit(TAC.Instruction.ifz(a1, op, a2, label));
+        }
+
+        TAC.Operator negate(TAC.Operator op) {
+            switch (op) {
+                case EQUAL:     return TAC.Operator.DIFFERENT;
+                case DIFFERENT: return TAC.Operator.EQUAL;
+                case GREATER:   return TAC.Operator.LESSEQ;
+                case GREATEREQ: return TAC.Operator.LESS;
+                case LESS:      return TAC.Operator.GREATEREQ;
+                default:        return TAC.Operator.GREATER;
+            }
         }
 
         @Override
-        public String visitIf_else(CCALParser.If_elseContext ctx) {
-            String label1 = makeUniqueLabel(1);
-            String label2 = makeUniqueLabel(2);
+        public TAC.Instruction visitIf_else(CCALParser.If_elseContext ctx) {
+            int label1 = newLabel();
+            int label2 = newLabel();
 
-            labelIndex += 2;
-            String condition = getCondition(ctx.condition());
-            result.append("ifz " + condition + " goto " + label1 + "\n");
+            branch(ctx.condition(), label1, false);
 
-            labelIndex += 2;
             visit(ctx.stmt_block(0));
 
-            result.append("goto "  + label2 + "\n");
-            result.append(label1 + ":\n");
+            emit(TAC.Instruction.jump(label2));
+            emit(TAC.Instruction.label(label1));
 
-            labelIndex += 2;
             visit(ctx.stmt_block(1));
 
-            result.append(label2 + ":\n");
-            labelIndex += 2;
+            emit(TAC.Instruction.label(label2));
 
             return null;
         }
 
         @Override
-        public String visitNotSingleParam(CCALParser.NotSingleParamContext ctx) {
-            visit(ctx.param());
-            return visit(ctx.parameter_list());
-        }
-
-        @Override
-        public String visitArg_list(CCALParser.Arg_listContext ctx) {
-            if (ctx.argument_list(0) != null) { visit(ctx.argument_list(0)); }
+        public TAC.Instruction visitArg_list(CCALParser.Arg_listContext ctx) {
+            for (CCALParser.ArgumentContext arg : ctx.argument()) { visit(arg); }
             return null;
         }
 
         @Override
-        public String visitBoolValueFrag(CCALParser.BoolValueFragContext ctx) {
-            return ctx.bool_value().getText();
+        public TAC.Instruction visitBoolValueFrag(CCALParser.BoolValueFragContext ctx) {
+            return TAC.Instruction.copy(null, ctx.bool_value().getText());
         }
 
         @Override
-        public String visitArgument_list(CCALParser.Argument_listContext ctx) {
-            if (ctx.ID() != null) { 
-                String id = ctx.ID().getText();
-                if (funcCtx && funcVariables.peek().containsKey(id)) {
-                    args.add(funcVariables.peek().get(id));
-                } else { args.add(id); }
-            }
+        public TAC.Instruction visitArgument(CCALParser.ArgumentContext ctx) {
+            if (ctx.ID() != null)  { args.add(resolve(ctx.ID().getText())); }
             if (ctx.NUM() != null) { args.add(ctx.NUM().getText()); }
-            if (ctx.argument_list() != null) { return visit(ctx.argument_list()); }
+            if (ctx.bool_value() != null) { args.add(ctx.bool_value().getText()); }
             return null;
         }
 
         @Override
-        public String visitFunc_call(CCALParser.Func_callContext ctx) {
-            String id = ctx.ID().getText();
+        public TAC.Instruction visitFunc_call(CCALParser.Func_callContext ctx) {
+            String id = Names.function(ctx.ID().getText());
             visit(ctx.arg_list());
-            for (String arg : args) { 
-                result.append("param " + arg + "\n");
-            }
-            String call = "call " + id + ", " + args.size();
-            if (ctx.parent.parent.getClass() != CCALParser.AssignmentContext.class) {
-                result.append(call + "\n");
-            }
+            for (String arg : args) { emit(TAC.Instruction.param(arg)); }
+            TAC.Instruction call = TAC.Instruction.call(null, id, args.size());
             args.clear();
             return call;
         }
+
+        @Override
+        public TAC.Instruction visitFuncCallStmt(CCALParser.FuncCallStmtContext ctx) {
+            emit(visit(ctx.func_call()));
+            return null;
+        }
         
         @Override
-        public String visitParam(CCALParser.ParamContext ctx) {
+        public TAC.Instruction visitParam(CCALParser.ParamContext ctx) {
             String id = ctx.ID().getText();
             String og = id;
             id = makeUnique(id);
             functionParams.push(id); 
-            funcVariables.peek().put(og, id);
-            return id; 
+            funcVariables.put(og, id);
+            return null; 
         }
 
         @Override
-        public String visitMain(CCALParser.MainContext ctx) {
-            funcVariables.push(new HashMap<>());
+        public TAC.Instruction visitMain(CCALParser.MainContext ctx) {
             funcCtx = true;
             visit(ctx.decl_list());
-            while (!globalConstants.empty()) {
-                String constant = globalConstants.pop();
-                result.append(constant + "\n");
-            }
             visit(ctx.stmt_block());
-            result.append("call _exit, 0\n");
+            emit(TAC.Instruction.call(null, "_exit", 0));
             return null;
         }
     }
@@ -0,0 +1,162 @@
+import java.util.*;
+
+/* Replaces the loops which only step a counter towards a bound and add
+   to or subtract from accumulators, the way CCAL programs multiply and
+   divide, by their result. The shape is the one of the generated loops:
+
+           goto L2
+       L1: c = c - p
+           a = a + q
+       L2: ifz c <= k goto L1
+
+   the steps and the bound not being written in the loop. The number of
+   iterations is computed with the _trips intrinsic, and each variable
+   moved by it times its step with _mult. _trips returns -1 when a step
+   is not positive or a variable would wrap around, the loop then runs
+   as before.
+
+   The intrinsics are only known to the interpreter and the JVM backend,
+   TACi has no multiplication, so TAC written to a file never uses them. */
+class IdiomRecognizer {
+    private final TAC tac;
+    int replaced; // Loops.
+
+    IdiomRecognizer(TAC tac) { this.tac = tac; }
+
+    // Returns the number of loops replaced.
+    public int recognize() {
+        for (TAC.Function function : tac.functions) { recognize(function); }
+        return replaced;
+    }
+
+    private void recognize(TAC.Function function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        Loops loops = new Loops(cfg);
+
+        // The closed forms replace the jumps into the loops, which end
+        // with a new label.
+        HashMap<Integer, List<TAC.Instruction>> closed = new HashMap<>();
+        HashMap<Integer, Integer> ends = new HashMap<>();
+        for (Loops.Loop loop : loops.loops) {
+            int at = loops.preheader(loop);
+            if (at < 0 || loop.blocks.cardinality() != 2) { continue; }
+            List<TAC.Instruction> code = closedForm(function, cfg, loop, at);
+            if (code == null) { continue; }
+
+            int end = function.newLabel(Names.label(function.name, function.labels() + 1));
+            code.add(TAC.Instruction.jump(end));
+            closed.put(at, code);
+            ends.put(loop.header.end, end);
+            replaced++;
+        }
+        if (closed.isEmpty()) { return; }
+
+        ArrayList<TAC.Instruction> code = new ArrayList<>();
+        for (int i = 0; i <= function.size(); i++) {
+            if (ends.containsKey(i)) { code.add(TAC.Instruction.label(ends.get(i))); }
+            if (i == function.size()) { break; }
+            if (closed.containsKey(i)) { code.addAll(closed.get(i)); }
+            else { code.add(function.get(i)); }
+        }
+        function.setCode(code);
+    }
+
+    // The code computing what the loop does, or null if it has another shape.
+    private List<TAC.Instruction> closedForm(TAC.Function function, ControlFlowGraph cfg,
+                                             Loops.Loop loop, int at) {
+        ControlFlowGraph.Block header = loop.header;
+        ControlFlowGraph.Block body = cfg.blocks.get(header.index - 1);
+        if (!loop.contains(body) || header.end - header.start != 2) { return null; }
+
+        TAC.Instruction jump  = function.get(at);
+        TAC.Instruction label = function.get(header.start);
+        TAC.Instruction test  = function.get(header.start + 1);
+        TAC.Instruction start = function.get(body.start);
+        if (jump.opcode != TAC.Opcode.GOTO || label.opcode != TAC.Opcode.LABEL ||
+            label.value != jump.value ||
+            test.opcode != TAC.Opcode.IFZ || test.operator == null ||
+            start.opcode != TAC.Opcode.LABEL || test.value != start.value) { return null; }
+
+        // Each variable of the loop is stepped once, by something the loop
+        // does not write.
+        LinkedHashMap<String, TAC.Instruction> steps = new LinkedHashMap<>();
+        for (int i = body.start + 1; i < body.end; i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode != TAC.Opcode.BINARY || step(ins) == null ||
+                steps.put(ins.result, ins) != null) { return null; }
+        }
+        for (TAC.Instruction ins : steps.values()) {
+            if (steps.containsKey(step(ins))) { return null; }
+        }
+
+        // The loop runs while "counter cont bound", ifz jumps when it is false.
+        TAC.Operator cont = negate(test.operator);
+        String counter = test.left, bound = test.right;
+        if (!steps.containsKey(counter)) {
+            counter = test.right;
+            bound   = test.left;
+            cont    = mirror(cont);
+        }
+        if (!steps.containsKey(counter) || steps.containsKey(bound)) { return null; }
+
+        TAC.Instruction update = steps.get(counter);
+        boolean down = update.operator == TAC.Operator.MINUS;
+        boolean inclusive = cont == TAC.Operator.GREATEREQ || cont == TAC.Operator.LESSEQ;
+        if (down != (cont == TAC.Operator.GREATER || cont == TAC.Operator.GREATEREQ)) { return null; }
+        if (!down && cont != TAC.Operator.LESS && cont != TAC.Operator.LESSEQ) { return null; }
+
+        // What is above the other shrinks by the step at each iteration.
+        ArrayList<TAC.Instruction> code = new ArrayList<>();
+        code.add(TAC.Instruction.param(down ? counter : bound));
+        code.add(TAC.Instruction.param(down ? bound : counter));
+        code.add(TAC.Instruction.param(step(update)));
+        code.add(TAC.Instruction.param(inclusive ? "1" : "0"));
+        String trips = function.newTemporary();
+        code.add(TAC.Instruction.call(trips, "_trips", 4));
+        code.add(TAC.Instruction.ifz(trips, TAC.Operator.GREATEREQ, "0", jump.value));
+
+        for (TAC.Instruction ins : steps.values()) {
+            String by = trips;
+            if (!step(ins).equals("1")) {
+                by = function.newTemporary();
+                code.add(TAC.Instruction.param(trips));
+                code.add(TAC.Instruction.param(step(ins)));
+                code.add(TAC.Instruction.call(by, "_mult", 2));
+            }
+            code.add(TAC.Instruction.binary(ins.result, ins.result, ins.operator, by));
+        }
+        return code;
+    }
+
+    // What v = v + s, v = s + v or v = v - s steps v by, if it is one.
+    private static String step(TAC.Instruction ins) {
+        if (ins.operator == TAC.Operator.MINUS) {
+            return ins.result.equals(ins.left) ? ins.right : null;
+        }
+        if (ins.operator != TAC.Operator.PLUS) { return null; }
+        if (ins.result.equals(ins.left))  { return ins.right; }
+        if (ins.result.equals(ins.right)) { return ins.left; }
+        return null;
+    }
+
+    private static TAC.Operator negate(TAC.Operator op) {
+        switch (op) {
+            case GREATER:   return TAC.Operator.LESSEQ;
+            case GREATEREQ: return TAC.Operator.LESS;
+            case LESS:      return TAC.Operator.GREATEREQ;
+            case LESSEQ:    return TAC.Operator.GREATER;
+            default:        return null;
+        }
+    }
+
+    // The operator with its operands swapped.
+    private static TAC.Operator mirror(TAC.Operator op) {
+        if (op == null) { return null; }
+        switch (op) {
+            case GREATER:   return TAC.Operator.LESS;
+            case GREATEREQ: return TAC.Operator.LESSEQ;
+            case LESS:      return TAC.Operator.GREATER;
+            default:        return TAC.Operator.GREATEREQ;
+        }
+    }
+}
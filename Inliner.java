@@ -0,0 +1,136 @@
+import java.util.*;
+
+/* Replaces calls to small functions by their code. Callees are handled
+   before their callers, so what is inlined has its own calls inlined
+   already; recursive functions are never inlined.
+
+   The params of the call become copies into the variables the getparams
+   wrote, and a return a copy into the result and a jump past the code.
+   The locals and temporaries of the callee become temporaries of the
+   caller, fresh at each call, globals are left as they are. */
+class Inliner {
+    static final int maxSize = 32; // Instructions of the functions inlined.
+
+    private final TAC tac;
+    private final HashMap<String, TAC.Function> functions;
+    private CallGraph calls;
+
+    TAC.Function caller;    // The function being rewritten.
+    ArrayList<TAC.Instruction> code;
+    int inlined;            // Number of calls replaced.
+
+    Inliner(TAC tac) {
+        this.tac  = tac;
+        functions = new HashMap<>();
+        for (TAC.Function function : tac.functions) { functions.put(function.name, function); }
+    }
+
+    // Returns the number of calls replaced.
+    public int inline() {
+        calls = new CallGraph(tac);
+        for (TAC.Function function : postOrder()) { inlineCalls(function); }
+        return inlined;
+    }
+
+    // Callees before callers, cycles being cut anywhere.
+    private List<TAC.Function> postOrder() {
+        ArrayList<TAC.Function> order = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        for (TAC.Function function : tac.functions) { visit(function.name, visited, order); }
+        return order;
+    }
+
+    private void visit(String name, HashSet<String> visited, ArrayList<TAC.Function> order) {
+        if (!functions.containsKey(name) || !visited.add(name)) { return; }
+        for (String callee : calls.callees(name)) { visit(callee, visited, order); }
+        order.add(functions.get(name));
+    }
+
+    private boolean canInline(TAC.Function callee, TAC.Instruction call) {
+        if (callee == null || callee == caller || callee.size() > maxSize) { return false; }
+        if (callee == tac.functions.get(tac.functions.size() - 1)) { return false; }
+        if (calls.isRecursive(callee.name)) { return false; }
+
+        // The getparams come first, and read params of this call.
+        boolean prologue = true;
+        for (int i = 0; i < callee.size(); i++) {
+            TAC.Instruction ins = callee.get(i);
+            if (ins.opcode != TAC.Opcode.GETPARAM) { prologue = false; }
+            else if (!prologue || ins.value > call.value) { return false; }
+        }
+
+        // The params are pushed just before the call.
+        if (code.size() < call.value) { return false; }
+        for (int i = code.size() - call.value; i < code.size(); i++) {
+            if (code.get(i).opcode != TAC.Opcode.PARAM) { return false; }
+        }
+        return true;
+    }
+
+    private void inlineCalls(TAC.Function function) {
+        caller = function;
+        code   = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode == TAC.Opcode.CALL && !TAC.isBuiltin(ins.left) &&
+                canInline(functions.get(ins.left), ins)) {
+                inline(functions.get(ins.left), ins);
+                changed = true;
+            } else { code.add(ins); }
+        }
+        if (changed) { function.setCode(code); }
+    }
+
+    private void inline(TAC.Function callee, TAC.Instruction call) {
+        int n = call.value;
+        String[] args = new String[n];
+        for (int i = 0; i < n; i++) { args[i] = code.get(code.size() - n + i).left; }
+        code.subList(code.size() - n, code.size()).clear();
+
+        HashMap<String, String> names = new HashMap<>();
+        int[] labels = new int[callee.labels()];
+        Arrays.fill(labels, -1);
+        int end = -1;
+
+        for (int i = 0; i < callee.size(); i++) {
+            TAC.Instruction ins = callee.get(i);
+            switch (ins.opcode) {
+                case GETPARAM:
+                    // getparam 1 is the last param pushed.
+                    code.add(TAC.Instruction.copy(rename(ins.result, names), args[n - ins.value]));
+                    break;
+                case RETURN:
+                    if (call.result != null && ins.left != null) {
+                        code.add(TAC.Instruction.copy(call.result, rename(ins.left, names)));
+                    }
+                    if (i < callee.size() - 1) {
+                        if (end < 0) { end = newLabel(); }
+                        code.add(TAC.Instruction.jump(end));
+                    }
+                    break;
+                default:
+                    int value = ins.value;
+                    if (ins.opcode == TAC.Opcode.LABEL || ins.opcode == TAC.Opcode.GOTO ||
+                        ins.opcode == TAC.Opcode.IFZ) {
+                        if (labels[value] < 0) { labels[value] = newLabel(); }
+                        value = labels[value];
+                    }
+                    String left = ins.opcode == TAC.Opcode.CALL ? ins.left : rename(ins.left, names);
+                    code.add(new TAC.Instruction(ins.opcode, rename(ins.result, names), left,
+                                                 ins.operator, rename(ins.right, names), value));
+            }
+        }
+        if (end >= 0) { code.add(TAC.Instruction.label(end)); }
+        inlined++;
+    }
+
+    private int newLabel() {
+        return caller.newLabel(Names.label(caller.name, caller.labels() + 1));
+    }
+
+    private String rename(String atom, HashMap<String, String> names) {
+        if (atom == null || TAC.isLiteral(atom) || tac.globals.contains(atom)) { return atom; }
+        return names.computeIfAbsent(atom, name -> caller.newTemporary());
+    }
+}
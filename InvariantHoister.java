@@ -0,0 +1,110 @@
+import java.util.*;
+
+/* Moves the computations of a loop whose operands it does not change in
+   front of it, so they run once instead of once per iteration. One can
+   be moved when it is the only definition of its result in the loop and
+   the result is read neither before it in the loop nor after the loop:
+   running it when the loop is not entered then changes nothing.
+
+   A call in the loop may write globals, which are then not invariant; in
+   a function which may call itself, it writes the function's own
+   variables too, so nothing is moved out of such a loop. */
+class InvariantHoister {
+    private final TAC tac;
+    private CallGraph calls;
+    int hoisted; // Instructions moved.
+
+    InvariantHoister(TAC tac) { this.tac = tac; }
+
+    // Returns the number of instructions moved out of a loop.
+    public int hoist() {
+        calls = new CallGraph(tac);
+        for (TAC.Function function : tac.functions) {
+            while (hoistFromOneLoop(function)) { }
+        }
+        return hoisted;
+    }
+
+    // Inner loops first, what leaves them may then leave the outer ones.
+    private boolean hoistFromOneLoop(TAC.Function function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        Loops loops = new Loops(cfg);
+        if (loops.loops.isEmpty()) { return false; }
+        Liveness liveness = new Liveness(cfg, tac.globals, tac.globals);
+
+        for (Loops.Loop loop : loops.loops) {
+            int at = loops.preheader(loop);
+            if (at < 0) { continue; }
+            List<Integer> invariants = invariants(loops, loop, liveness);
+            if (invariants.isEmpty()) { continue; }
+
+            HashSet<Integer> moved = new HashSet<>(invariants);
+            ArrayList<TAC.Instruction> code = new ArrayList<>();
+            for (int i = 0; i < function.size(); i++) {
+                if (i == at) {
+                    for (int k : invariants) { code.add(function.get(k)); }
+                }
+                if (!moved.contains(i)) { code.add(function.get(i)); }
+            }
+            function.setCode(code);
+            hoisted += invariants.size();
+            return true;
+        }
+        return false;
+    }
+
+    // The positions of the instructions to move, each after those it reads.
+    private List<Integer> invariants(Loops loops, Loops.Loop loop, Liveness liveness) {
+        ControlFlowGraph cfg = loops.cfg;
+        TAC.Function function = cfg.function;
+        ArrayList<Integer> invariants = new ArrayList<>();
+
+        HashMap<String, Integer> definitions = new HashMap<>();
+        boolean call = false;
+        for (int b = loop.blocks.nextSetBit(0); b >= 0; b = loop.blocks.nextSetBit(b + 1)) {
+            ControlFlowGraph.Block block = cfg.blocks.get(b);
+            for (int i = block.start; i < block.end; i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.result != null) { definitions.merge(ins.result, 1, Integer::sum); }
+                if (ins.opcode == TAC.Opcode.CALL && !TAC.isBuiltin(ins.left)) { call = true; }
+            }
+        }
+        if (call && calls.isRecursive(function.name)) { return invariants; }
+
+        BitSet readAfter = (BitSet) liveness.liveIn[loop.header.index].clone();
+        for (ControlFlowGraph.Block exit : loops.exits(loop)) {
+            readAfter.or(liveness.liveIn[exit.index]);
+        }
+
+        HashSet<String> computed = new HashSet<>(); // Results of the invariants.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = loop.blocks.nextSetBit(0); b >= 0; b = loop.blocks.nextSetBit(b + 1)) {
+                ControlFlowGraph.Block block = cfg.blocks.get(b);
+                for (int i = block.start; i < block.end; i++) {
+                    TAC.Instruction ins = function.get(i);
+                    if (ins.opcode != TAC.Opcode.COPY && ins.opcode != TAC.Opcode.UNARY &&
+                        ins.opcode != TAC.Opcode.BINARY) { continue; }
+                    if (computed.contains(ins.result) || definitions.get(ins.result) != 1) { continue; }
+                    if (readAfter.get(liveness.id(ins.result))) { continue; }
+                    if (call && tac.globals.contains(ins.result)) { continue; }
+                    if (!isInvariant(ins.left, definitions, computed, call)) { continue; }
+                    if (ins.right != null && !isInvariant(ins.right, definitions, computed, call)) {
+                        continue;
+                    }
+                    invariants.add(i);
+                    computed.add(ins.result);
+                    changed = true;
+                }
+            }
+        }
+        return invariants;
+    }
+
+    private boolean isInvariant(String atom, HashMap<String, Integer> definitions,
+                                HashSet<String> computed, boolean call) {
+        if (TAC.isLiteral(atom) || computed.contains(atom)) { return true; }
+        return !definitions.containsKey(atom) && !(call && tac.globals.contains(atom));
+    }
+}
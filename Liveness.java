@@ -0,0 +1,116 @@
+import java.util.*;
+
+/* Which variables of a function are live, that is may be read before
+   being written again, at the start and at the end of each block.
+   All the variables of TAC are global: what a callee may read is live
+   at a call, and what the rest of the program may read live at a
+   return. The variables of a function are numbered in a BitSet. */
+class Liveness {
+    final ControlFlowGraph cfg;
+    final BitSet[] liveIn, liveOut;
+    private final HashMap<String, Integer> ids;
+    private final BitSet atCall, atReturn;
+
+    Liveness(ControlFlowGraph cfg, Collection<String> atCall, Collection<String> atReturn) {
+        this.cfg = cfg;
+        ids      = new HashMap<>();
+        this.atCall   = ids(atCall);
+        this.atReturn = ids(atReturn);
+
+        int n   = cfg.blocks.size();
+        liveIn  = new BitSet[n];
+        liveOut = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            liveIn[i]  = new BitSet();
+            liveOut[i] = new BitSet();
+        }
+        solve();
+    }
+
+    public int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = ids.size();
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    private BitSet ids(Collection<String> names) {
+        BitSet set = new BitSet();
+        for (String name : names) { set.set(id(name)); }
+        return set;
+    }
+
+    // Backwards over the blocks, until no live set grows.
+    private void solve() {
+        ArrayDeque<ControlFlowGraph.Block> work = new ArrayDeque<>();
+        BitSet queued = new BitSet();
+        for (int i = cfg.blocks.size() - 1; i >= 0; i--) {
+            work.add(cfg.blocks.get(i));
+            queued.set(i);
+        }
+        while (!work.isEmpty()) {
+            ControlFlowGraph.Block block = work.poll();
+            queued.clear(block.index);
+
+            BitSet out = liveOut[block.index];
+            for (ControlFlowGraph.Block next : block.successors) { out.or(liveIn[next.index]); }
+            if (block.successors.isEmpty()) { out.or(exitLive(block)); }
+
+            BitSet in = (BitSet) out.clone();
+            for (int i = block.end - 1; i >= block.start; i--) {
+                transfer(cfg.function.get(i), in);
+            }
+            if (!in.equals(liveIn[block.index])) {
+                liveIn[block.index] = in;
+                for (ControlFlowGraph.Block previous : block.predecessors) {
+                    if (!queued.get(previous.index)) {
+                        queued.set(previous.index);
+                        work.add(previous);
+                    }
+                }
+            }
+        }
+    }
+
+    // Nothing is read after the program exits.
+    private BitSet exitLive(ControlFlowGraph.Block block) {
+        TAC.Instruction last = cfg.function.get(block.end - 1);
+        return ControlFlowGraph.isExit(last) ? new BitSet() : atReturn;
+    }
+
+    // Turn what is live after an instruction into what is live before it.
+    public void transfer(TAC.Instruction ins, BitSet live) {
+        if (ins.result != null) { live.clear(id(ins.result)); }
+        if (ins.opcode == TAC.Opcode.CALL && !TAC.isBuiltin(ins.left)) { live.or(atCall); }
+        if (ins.opcode == TAC.Opcode.RETURN) { live.or(atReturn); }
+        for (String use : uses(ins)) {
+            if (!TAC.isLiteral(use)) { live.set(id(use)); }
+        }
+    }
+
+    private static final String[] none = {};
+
+    // The variables and literals an instruction reads.
+    public static String[] uses(TAC.Instruction ins) {
+        switch (ins.opcode) {
+            case COPY:
+            case UNARY:
+            case PARAM:
+                return new String[] {ins.left};
+            case BINARY:
+            case IFZ:
+                return ins.right != null ?
+                    new String[] {ins.left, ins.right} : new String[] {ins.left};
+            case RETURN:
+                return ins.left != null ? new String[] {ins.left} : none;
+            default:
+                return none;
+        }
+    }
+
+    public boolean isLiveOut(ControlFlowGraph.Block block, String name) {
+        return liveOut[block.index].get(id(name));
+    }
+}
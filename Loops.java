@@ -0,0 +1,87 @@
+import java.util.*;
+
+/* The loops of a function. A jump to a block dominating the one it
+   comes from is a back edge, and the loop is its header with the blocks
+   from which the back edge is reached without going through the header.
+   Back edges to the same header make a single loop. */
+class Loops {
+    static class Loop {
+        final ControlFlowGraph.Block header;
+        final BitSet blocks; // By index, the header included.
+
+        Loop(ControlFlowGraph.Block header) {
+            this.header = header;
+            blocks      = new BitSet();
+            blocks.set(header.index);
+        }
+
+        boolean contains(ControlFlowGraph.Block block) { return blocks.get(block.index); }
+    }
+
+    final ControlFlowGraph cfg;
+    final Dominators dominators;
+    final ArrayList<Loop> loops; // Inner loops first.
+
+    Loops(ControlFlowGraph cfg) {
+        this.cfg   = cfg;
+        dominators = new Dominators(cfg);
+        loops      = new ArrayList<>();
+
+        HashMap<ControlFlowGraph.Block, Loop> byHeader = new LinkedHashMap<>();
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            if (!dominators.reachable.get(block.index)) { continue; }
+            for (ControlFlowGraph.Block next : block.successors) {
+                if (!dominators.dominates(next, block)) { continue; }
+                Loop loop = byHeader.computeIfAbsent(next, Loop::new);
+                addBody(loop, block);
+            }
+        }
+        loops.addAll(byHeader.values());
+        loops.sort((a, b) -> Integer.compare(a.blocks.cardinality(), b.blocks.cardinality()));
+    }
+
+    private void addBody(Loop loop, ControlFlowGraph.Block tail) {
+        ArrayDeque<ControlFlowGraph.Block> work = new ArrayDeque<>();
+        if (!loop.blocks.get(tail.index)) {
+            loop.blocks.set(tail.index);
+            work.push(tail);
+        }
+        while (!work.isEmpty()) {
+            for (ControlFlowGraph.Block previous : work.pop().predecessors) {
+                if (!loop.blocks.get(previous.index) && dominators.reachable.get(previous.index)) {
+                    loop.blocks.set(previous.index);
+                    work.push(previous);
+                }
+            }
+        }
+    }
+
+    /* Where code run once before the loop can be inserted: at the end of
+       the only block entering the loop, before its jump to the header.
+       -1 if the loop is entered from several blocks or by an ifz. */
+    public int preheader(Loop loop) {
+        ControlFlowGraph.Block entering = null;
+        for (ControlFlowGraph.Block previous : loop.header.predecessors) {
+            if (loop.contains(previous)) { continue; }
+            if (entering != null) { return -1; }
+            entering = previous;
+        }
+        if (entering == null) { return -1; }
+
+        TAC.Instruction last = cfg.function.get(entering.end - 1);
+        if (last.opcode == TAC.Opcode.GOTO) { return entering.end - 1; }
+        if (last.opcode == TAC.Opcode.IFZ) { return -1; }
+        return entering.end;
+    }
+
+    // The blocks out of the loop it jumps or falls to.
+    public List<ControlFlowGraph.Block> exits(Loop loop) {
+        ArrayList<ControlFlowGraph.Block> exits = new ArrayList<>();
+        for (int i = loop.blocks.nextSetBit(0); i >= 0; i = loop.blocks.nextSetBit(i + 1)) {
+            for (ControlFlowGraph.Block next : cfg.blocks.get(i).successors) {
+                if (!loop.contains(next) && !exits.contains(next)) { exits.add(next); }
+            }
+        }
+        return exits;
+    }
+}
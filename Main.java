@@ -1,13 +1,21 @@
-import org.antlr.v4.runtime.tree.ParseTree;
-
+import java.lang.invoke.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import java.nio.file.*;
+import java.util.*;
 import java.io.*;
 
 public class Main {
     static final String extension = ".ccl";
     static final String outputFile = "output.tac";
+    static final String red = "\u001B[31m";
     static final String green = "\u001B[32m";
     static final String reset = "\u001B[0m";
 
+    static int level = 0; // Of optimization, set with -O<level>.
+    static FunctionCache cache; // Set with --cache <directory>.
+    static Path stats; // Set with --stats <file>, where the JSON report goes.
+
     public static void failWith(final String errorMsg) {
         System.err.println(errorMsg);
         System.exit(1);
@@ -22,42 +30,285 @@ public class Main {
         return false;
     }
 
-    public static void main(final String[] args) {
-        if (args.length < 1) {
-            failWith("Please provide file to process as argument.");
+    // The files to compile, directories are searched for .ccl files.
+    static List<Path> collectFiles(final String[] paths) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        for (String path : paths) {
+            Path p = Paths.get(path);
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> walk = Files.walk(p)) {
+                    walk.filter(f -> validFileName(f.toString()))
+                        .sorted()
+                        .forEach(files::add);
+                }
+            } else if (validFileName(path)) { files.add(p); }
+            else { System.err.println("Invalid file extension for \"" + path + "\"."); }
         }
+        return files;
+    }
 
-        final String filePath = args[0];
+    /* Compile every file on its own thread, each output being written
+       next to its input. Reports are printed in the order of the files. */
+    static boolean batch(final String[] paths) {
+        List<Path> files = null;
+        try { files = collectFiles(paths); }
+        catch (IOException e) { failWith("Error when trying to list the files."); }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Compilation>> compilations = new ArrayList<>();
+        for (Path file : files) {
+            compilations.add(executor.submit(new Compilation(file).optimize(level).withCache(cache)
+                .withStats(stats != null)));
+        }
+        Stats.Aggregate aggregate = new Stats.Aggregate();
 
+        int failed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Compilation compilation = null;
+            try { compilation = compilations.get(i).get(); }
+            catch (InterruptedException | ExecutionException e) {
+                // Only what call() does not catch, the other files go on.
+                System.out.println("Error when compiling: " + e.getCause());
+                System.out.println(red + files.get(i) + " failed" + reset + "\n");
+                failed++;
+                continue;
+            }
+            if (!printResult(compilation)) { failed++; }
+            System.out.println();
+            aggregate.add(compilation.stats());
+        }
+        executor.shutdown();
+        if (stats != null) { Stats.write(stats, aggregate.toJson()); }
+
+        System.out.println((files.size() - failed) + " of " + files.size() +
+            " files compiled successfully.");
+        return failed == 0;
+    }
+
+    // Print the report of a compilation, then where it wrote the result.
+    static boolean printResult(Compilation compilation) {
+        System.out.print(compilation.report());
+        if (compilation.succeeded()) {
+            System.out.println(green + compilation.input + " -> " + compilation.output + reset);
+        } else {
+            System.out.println(red + compilation.input + " failed" + reset);
+        }
+        return compilation.succeeded();
+    }
+
+    /* Compile a file to TAC without writing it, exits on errors. The
+       code is run in-process, it may use intrinsics. */
+    static TAC compileOnly(final String filePath) {
         if (!validFileName(filePath)) {
             failWith("Invalid file extension for \"" + filePath + "\".");
         }
 
-        final SyntaxAnalyser syntaxAnalyser = new SyntaxAnalyser(filePath);
-        ParseTree tree = syntaxAnalyser.parse();
-        syntaxAnalyser.outputResult();
-        if (!syntaxAnalyser.parsingSuccessful()) { System.exit(1); }
+        TAC tac = null;
+        try {
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            tac = new Compilation(Paths.get(filePath), null).optimize(level).withCache(cache)
+                .withIntrinsics().compile(new PrintStream(report));
+            if (tac == null) { failWith(report.toString()); }
+        } catch (CompilationException e) { failWith(e.getMessage()); }
+        return tac;
+    }
+
+    /* Compile a file and run the result in-process, without writing it.
+       The number of executed instructions and the time are on stderr. */
+    static void execute(final String filePath) {
+        TAC tac = compileOnly(filePath);
+        try {
+            TACInterpreter interpreter = new TACInterpreter(tac);
+            long start = System.nanoTime();
+            interpreter.run();
+            long time = (System.nanoTime() - start) / 1_000_000;
+            System.err.println("\nExecuted " + interpreter.executed() +
+                " instructions in " + time + " ms.");
+        } catch (IOException e) { failWith("Error when reading the input."); }
+          catch (IllegalStateException e) { failWith(e.getMessage()); }
+        System.exit(0);
+    }
+
+    /* Compile each file without and with optimizations, print the globals
+       and the variables of main at the exit, and run both in-process:
+       they should print the same. The level is 2 unless one is given. */
+    static boolean check(final String[] paths) {
+        List<Path> files = null;
+        try { files = collectFiles(paths); }
+        catch (IOException e) { failWith("Error when trying to list the files."); }
+
+        int failed = 0;
+        for (Path file : files) {
+            TAC plain = observed(file), optimized = observed(file);
+            if (plain == null) {
+                System.out.println(red + file + " failed to compile" + reset);
+                failed++;
+                continue;
+            }
+            new Optimizer(level > 0 ? level : 2, true).optimize(optimized);
+
+            long[] executed = new long[2];
+            String before = output(plain, executed, 0), after = output(optimized, executed, 1);
+            if (before.equals(after)) {
+                System.out.println(green + file + ": same output, " + executed[0] + " -> " +
+                    executed[1] + " instructions executed" + reset);
+            } else {
+                System.out.println(red + file + ": output differs" + reset);
+                System.out.print("Without optimizations:\n" + before + "With:\n" + after);
+                failed++;
+            }
+        }
+        System.out.println((files.size() - failed) + " of " + files.size() + " files checked.");
+        return failed == 0;
+    }
+
+    // The unoptimized code of a file, printing its variables when it exits.
+    static TAC observed(Path file) {
+        TAC tac = null;
+        try { tac = new Compilation(file, null).compile(new PrintStream(new ByteArrayOutputStream())); }
+        catch (CompilationException e) { return null; }
+        if (tac == null) { return null; }
 
-        CCALSemanticAnalyser semanticAnalyser = new CCALSemanticAnalyser(tree);
-        semanticAnalyser.performAnalysis();
-        System.out.println();
-        semanticAnalyser.outputResult();
-        if (!semanticAnalyser.analysisSucceeded()) { System.exit(1); }
+        TAC.Function main = tac.functions.get(tac.functions.size() - 1);
+        LinkedHashSet<String> variables = new LinkedHashSet<>(tac.globals);
+        for (int i = 0; i < main.size(); i++) {
+            String result = main.get(i).result;
+            if (result != null && !main.temporaries.contains(result)) { variables.add(result); }
+        }
+        ArrayList<TAC.Instruction> code = new ArrayList<>();
+        for (int i = 0; i < main.size(); i++) {
+            TAC.Instruction ins = main.get(i);
+            if (ins.opcode == TAC.Opcode.CALL && ins.left.equals("_exit")) {
+                for (String variable : variables) {
+                    code.add(TAC.Instruction.param(variable));
+                    code.add(TAC.Instruction.call(null, "_println", 1));
+                }
+            }
+            code.add(ins);
+        }
+        main.setCode(code);
+        return tac;
+    }
 
-        IRCodeGenerator generator = new IRCodeGenerator(tree);
-        String result = generator.generate();
+    // What the code prints, or the error it stops with.
+    static String output(TAC tac, long[] executed, int i) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(out, true);
         try {
-            FileWriter fileWriter = new FileWriter(outputFile);
-            fileWriter.write(result);
-            fileWriter.close();
-        } catch (IOException e) {
-            failWith("Error when trying to write the result.");
-        }
-        
-        System.out.println(
-            green + 
-            "\nIntermediate code generation succeeded." + 
-            reset
-        );
-    }
-}
\ No newline at end of file
+            TACInterpreter interpreter = new TACInterpreter(tac, print, new ByteArrayInputStream(new byte[0]));
+            interpreter.run();
+            executed[i] = interpreter.executed();
+        } catch (IOException | RuntimeException e) { print.println("Error: " + e.getMessage()); }
+        return out.toString();
+    }
+
+    /* Compile a file to JVM bytecode, written as <name>.class in the
+       current directory, or loaded as a hidden class and run. */
+    static void compileToJVM(final String filePath, boolean run) {
+        TAC tac = compileOnly(filePath);
+        String className = BytecodeGenerator.className(Paths.get(filePath).getFileName().toString());
+        byte[] bytes = null;
+        try { bytes = new BytecodeGenerator(tac, className).generate(); }
+        catch (IllegalStateException e) { failWith(e.getMessage()); }
+
+        if (!run) {
+            try { Files.write(Paths.get(className + ".class"), bytes); }
+            catch (IOException e) { failWith("Error when trying to write the result."); }
+            System.out.println(green + filePath + " -> " + className + ".class" + reset);
+            System.exit(0);
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle main = lookup.findStatic(lookup.lookupClass(), "main",
+                                                  MethodType.methodType(int.class));
+            long start = System.nanoTime();
+            int result = (int) main.invokeExact();
+            long time = (System.nanoTime() - start) / 1_000_000;
+            System.out.flush();
+            System.err.println("\nRan in " + time + " ms.");
+        } catch (Throwable e) { failWith("Error when running: " + e); }
+        System.exit(0);
+    }
+
+    /* Options come before the mode and the files: -O enables the
+       optimizations, -O<n> chooses their level, --cache <directory>
+       keeps what each function gives there, see FunctionCache, and
+       --stats <file> writes what each phase costs there, see Stats. */
+    static String[] parseOptions(final String[] args) {
+        int first = 0;
+        while (first < args.length) {
+            String option = args[first];
+            if (option.matches("-O[0-9]*")) {
+                level = option.length() > 2 ? Integer.parseInt(option.substring(2)) : 1;
+                first++;
+            } else if (option.equals("--cache") && first + 1 < args.length) {
+                try { cache = new FunctionCache(Paths.get(args[first + 1])); }
+                catch (IOException e) { failWith("Cannot create the cache " + args[first + 1] + "."); }
+                first += 2;
+            } else if (option.equals("--stats") && first + 1 < args.length) {
+                stats = Paths.get(args[first + 1]);
+                first += 2;
+            } else { break; }
+        }
+        return Arrays.copyOfRange(args, first, args.length);
+    }
+
+    public static void main(final String[] options) {
+        final String[] args = parseOptions(options);
+        if (args.length < 1) {
+            failWith("Please provide file to process as argument.");
+        }
+
+        if (args[0].equals("--server")) {
+            if (args.length < 2) { failWith("Please provide a port or a socket path."); }
+            try { new CompileServer(args[1], level).withStats(stats).serve(); } 
+            catch (IOException e) { failWith("Server error: " + e.getMessage()); }
+        }
+
+        if (args[0].equals("--batch")) {
+            boolean succeeded = batch(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(succeeded ? 0 : 1);
+        }
+
+        if (args[0].equals("--watch")) {
+            if (args.length < 2) { failWith("Please provide a directory to watch."); }
+            try {
+                // Without a cache directory, the functions are only cached in memory.
+                FunctionCache functions = cache != null ? cache : new FunctionCache(null);
+                new Watcher(Paths.get(args[1]), level, functions).withStats(stats).watch();
+            } catch (IOException e) { failWith("Error when watching: " + e.getMessage()); }
+              catch (InterruptedException e) { System.exit(0); }
+        }
+
+        if (args[0].equals("--check")) {
+            boolean succeeded = check(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(succeeded ? 0 : 1);
+        }
+
+        if (args[0].equals("--jvm") || args[0].equals("--class")) {
+            if (args.length < 2) { failWith("Please provide file to compile as argument."); }
+            compileToJVM(args[1], args[0].equals("--jvm"));
+        }
+
+        if (args[0].equals("--run")) {
+            if (args.length < 2) { failWith("Please provide file to run as argument."); }
+            execute(args[1]);
+        }
+
+        final String filePath = args[0];
+
+        if (!validFileName(filePath)) {
+            failWith("Invalid file extension for \"" + filePath + "\".");
+        }
+
+        Compilation compilation = new Compilation(Paths.get(filePath), Paths.get(outputFile))
+            .optimize(level).withCache(cache).withStats(stats != null);
+        boolean succeeded = false;
+        try { succeeded = compilation.run(System.out); }
+        catch (CompilationException e) { System.err.println(e.getMessage()); }
+        if (stats != null) { Stats.write(stats, compilation.stats().toJson()); }
+        if (!succeeded) { System.exit(1); }
+    }
+}
@@ -0,0 +1,37 @@
+/* The names of the generated code. The underscores of user identifiers
+   are doubled, so that a single underscore only ever separates the
+   parts of a generated name, which stays short:
+
+       x       the global x
+       f       the function f
+       f_x     the local x of f
+       f_1     a temporary of f
+       f_L1    a label of f (labels are not variables)
+
+   Identifiers may start with an underscore too, which TACi does not
+   accept at the start of a name. Such an identifier gets a u before
+   it, and so does one starting with u, so that the u can be told
+   apart: the global _x is u__x, the function u_ is uu__ and the local
+   _1 of f is f_u__1. Every part then has even runs of underscores
+   only and starts with a letter, so the first odd run of a name ends
+   with the separator, and the part after it never starts with an
+   underscore. None of these names can be confused, and a name does
+   not depend on the other functions of the program. */
+final class Names {
+    private Names() { }
+
+    static String escape(String id) { return id.replace("_", "__"); }
+
+    // An identifier as the part of a name, see above.
+    private static String part(String id) {
+        return (id.startsWith("_") || id.startsWith("u") ? "u" : "") + escape(id);
+    }
+
+    static String global(String id)   { return part(id); }
+    static String function(String id) { return part(id); }
+
+    // The function is given by its name in the generated code.
+    static String local(String function, String id) { return function + "_" + part(id); }
+    static String temporary(String function, int n)  { return function + "_" + n; }
+    static String label(String function, int n)      { return function + "_L" + n; }
+}
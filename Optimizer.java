@@ -0,0 +1,70 @@
+import java.util.*;
+import java.io.*;
+
+/* Runs the optimization passes over the generated code, the level being
+   chosen with -O. What each pass did is kept for the report, in the
+   order they run. Intrinsics are only used for code run in-process. */
+class Optimizer {
+    final int level;
+    final boolean intrinsics;
+    private final ArrayList<String> passes; // A line of the report for each.
+    private int before, after;
+    private TemporaryAllocator allocator;
+
+    Optimizer(int level) { this(level, false); }
+
+    Optimizer(int level, boolean intrinsics) {
+        this.level      = level;
+        this.intrinsics = intrinsics;
+        passes          = new ArrayList<>();
+    }
+
+    public TAC optimize(TAC tac) {
+        before = tac.size();
+        if (level >= 2) {
+            // First, for the other passes to see through the calls.
+            passes.add("Inlining replaced " + new Inliner(tac).inline() + " calls.");
+            removed("Global value numbering", new ValueNumberer(tac).number());
+        }
+        if (level >= 1) {
+            removed("Constant folding", new ConstantFolder(tac).fold());
+            removed("Dead code elimination", new DeadCodeEliminator(tac).eliminate());
+            if (level >= 2) {
+                passes.add("Loop invariant code motion moved " + new InvariantHoister(tac).hoist() +
+                    " instructions.");
+            }
+            if (level >= 2 && intrinsics) {
+                passes.add("Idiom recognition replaced " + new IdiomRecognizer(tac).recognize() + " loops.");
+            }
+            removed("Peephole optimization", new PeepholeOptimizer(tac).optimize());
+
+            // Last, once no pass adds or removes temporaries.
+            allocator = new TemporaryAllocator(tac);
+            allocator.allocate();
+        }
+        after = tac.size();
+        return tac;
+    }
+
+    private void removed(String pass, int instructions) {
+        passes.add(pass + " removed " + instructions + " instructions.");
+    }
+
+    public void outputResult(PrintStream out) {
+        for (String pass : passes) { out.println(pass); }
+        if (after <= before) {
+            out.println("Optimization removed " + (before - after) + " of " +
+                before + " instructions.");
+        } else {
+            // Inlining copies code.
+            out.println("Optimization added " + (after - before) + " to the " +
+                before + " instructions.");
+        }
+        if (allocator != null) {
+            out.println("Temporaries: " + allocator.before + " names before, " +
+                allocator.after + " after, at most " + allocator.maxLive + " live at once.");
+        }
+    }
+
+    public void outputResult() { outputResult(System.out); }
+}
@@ -0,0 +1,25 @@
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* Size of the output for the program of CacheBenchmark, of a growing
+   number of functions with a loop each. Names are local to their
+   function, see Names, so the size per function only grows with the
+   digits of the function names. */
+public class OutputSizeBenchmark {
+    static final int[] sizes = { 100, 400, 1600, 6400 };
+
+    public static void main(final String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("output-size-benchmark");
+        Path input = directory.resolve("program.ccl"), output = directory.resolve("program.tac");
+        for (int n : sizes) {
+            Files.write(input, CacheBenchmark.program(n, new int[n]).getBytes());
+            PrintStream report = new PrintStream(new ByteArrayOutputStream());
+            if (!new Compilation(input, output).run(report)) {
+                throw new IllegalStateException("the program does not compile");
+            }
+            long bytes = Files.size(output);
+            System.out.println(n + " functions: " + bytes + " bytes, " + bytes / n + " per function");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import org.antlr.v4.runtime.atn.*;
+import org.antlr.v4.runtime.*;
+
+import java.util.*;
+
+/* Parse throughput, in MB of source per second, of SyntaxAnalyser,
+   which tries SLL prediction first, and of a parser only using full LL,
+   as it did before. The program of CacheBenchmark is parsed both ways,
+   lexing included, in the same JVM, so that the DFA cache of the parser
+   is warm for both, as in batch or server mode. */
+public class ParseBenchmark {
+    static long sll(String source) {
+        long start = System.nanoTime();
+        if (new SyntaxAnalyser("program.ccl", source).parse() == null) {
+            throw new IllegalStateException("the program does not parse");
+        }
+        return System.nanoTime() - start;
+    }
+
+    static long ll(String source) {
+        long start = System.nanoTime();
+        CCALParser parser = new CCALParser(new CommonTokenStream(
+            new CCALLexer(CharStreams.fromString(source, "program.ccl"))));
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        parser.program();
+        if (parser.getNumberOfSyntaxErrors() > 0) { throw new IllegalStateException("the program does not parse"); }
+        return System.nanoTime() - start;
+    }
+
+    static String throughput(int bytes, long nanos) {
+        return String.format("%.1f MB/s", bytes / 1e6 / (nanos / 1e9));
+    }
+
+    public static void main(final String[] args) {
+        int n      = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int warmup = 5;
+
+        String source = CacheBenchmark.program(n, new int[n]);
+        int bytes = source.getBytes().length;
+
+        long[] withSLL = new long[rounds], onlyLL = new long[rounds];
+        for (int r = -warmup; r < rounds; r++) {
+            long first  = sll(source);
+            long second = ll(source);
+            if (r >= 0) {
+                withSLL[r] = first;
+                onlyLL[r]  = second;
+            }
+        }
+
+        long sll = CacheBenchmark.median(withSLL), ll = CacheBenchmark.median(onlyLL);
+        System.out.println(n + " functions, " + bytes + " bytes, " + rounds + " rounds:");
+        System.out.println("SLL, then LL: " + CompileClient.millis(sll) + " ms (median), " + throughput(bytes, sll));
+        System.out.println("LL only:      " + CompileClient.millis(ll) + " ms (median), " + throughput(bytes, ll));
+    }
+}
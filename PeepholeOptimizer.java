@@ -0,0 +1,226 @@
+import java.util.*;
+
+/* Simplifies the jumps of each function, looking at a few instructions
+   at a time, until nothing changes:
+   - a jump to a goto goes straight where the goto does,
+   - an ifz over a goto jumps where the goto does, its condition negated,
+   - a jump to the next instruction is removed, and so is the code after
+     a goto or a return, up to the next label,
+   - labels in a row become the first one, and those nothing jumps to
+     are removed,
+   - a comparison, negation or copy whose result is only read by the ifz
+     right after it is done by the ifz itself. */
+class PeepholeOptimizer {
+    private final TAC tac;
+    private CallGraph calls;
+
+    PeepholeOptimizer(TAC tac) { this.tac = tac; }
+
+    // Returns the number of instructions removed.
+    public int optimize() {
+        int before = tac.size();
+        calls = new CallGraph(tac);
+        for (TAC.Function function : tac.functions) {
+            while (optimize(function)) { }
+        }
+        return before - tac.size();
+    }
+
+    private boolean optimize(TAC.Function function) {
+        boolean changed = fuse(function);
+        changed |= thread(function);
+        changed |= invert(function);
+        changed |= removeJumps(function);
+        changed |= removeLabels(function);
+        return changed;
+    }
+
+    // The index of each label in the code, -1 for those not in it.
+    private static int[] labelIndices(TAC.Function function) {
+        int[] at = new int[function.labels()];
+        Arrays.fill(at, -1);
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode == TAC.Opcode.LABEL) { at[ins.value] = i; }
+        }
+        return at;
+    }
+
+    private static boolean isJump(TAC.Instruction ins) {
+        return ins.opcode == TAC.Opcode.GOTO || ins.opcode == TAC.Opcode.IFZ;
+    }
+
+    // Whether the labels right after i include the label.
+    private static boolean jumpsToNext(TAC.Function function, int i, int label) {
+        for (int j = i + 1; j < function.size(); j++) {
+            TAC.Instruction ins = function.get(j);
+            if (ins == null) { continue; }
+            if (ins.opcode != TAC.Opcode.LABEL) { return false; }
+            if (ins.value == label) { return true; }
+        }
+        return false;
+    }
+
+    /* Where a jump to the label ends up, going through the gotos found
+       after it. A jump into a cycle of gotos is left as it is, to always
+       make the same choice. */
+    private static int destination(TAC.Function function, int[] at, int label) {
+        BitSet seen = new BitSet();
+        int current = label;
+        while (true) {
+            seen.set(current);
+            int i = at[current];
+            if (i < 0) { return current; }
+            while (i < function.size() && function.get(i).opcode == TAC.Opcode.LABEL) { i++; }
+            if (i == function.size() || function.get(i).opcode != TAC.Opcode.GOTO) { return current; }
+            int next = function.get(i).value;
+            if (seen.get(next)) { return label; }
+            current = next;
+        }
+    }
+
+    private boolean thread(TAC.Function function) {
+        boolean changed = false;
+        int[] at = labelIndices(function);
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (!isJump(ins)) { continue; }
+            int label = destination(function, at, ins.value);
+            if (label != ins.value) {
+                ins.value = label;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // ifz c goto L1; goto L2; L1:   becomes   ifz !c goto L2; L1:
+    private boolean invert(TAC.Function function) {
+        for (int i = 0; i + 1 < function.size(); i++) {
+            TAC.Instruction ins = function.get(i), next = function.get(i + 1);
+            if (ins.opcode != TAC.Opcode.IFZ || ins.operator == null ||
+                next.opcode != TAC.Opcode.GOTO || !jumpsToNext(function, i + 1, ins.value)) { continue; }
+            ins.operator = negate(ins.operator);
+            ins.value    = next.value;
+            function.set(i + 1, null);
+            i++;
+        }
+        return function.compact() > 0;
+    }
+
+    private boolean removeJumps(TAC.Function function) {
+        boolean unreachable = false;
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode == TAC.Opcode.LABEL) { unreachable = false; }
+            if (unreachable || (isJump(ins) && jumpsToNext(function, i, ins.value))) {
+                function.set(i, null);
+                continue;
+            }
+            unreachable = ins.opcode == TAC.Opcode.GOTO || ins.opcode == TAC.Opcode.RETURN ||
+                          ControlFlowGraph.isExit(ins);
+        }
+        return function.compact() > 0;
+    }
+
+    private boolean removeLabels(TAC.Function function) {
+        // The first label of each row stands for the others.
+        int[] same = new int[function.labels()];
+        for (int l = 0; l < same.length; l++) { same[l] = l; }
+        int first = -1;
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode != TAC.Opcode.LABEL) { first = -1; }
+            else if (first < 0) { first = ins.value; }
+            else { same[ins.value] = first; }
+        }
+
+        BitSet used = new BitSet();
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (isJump(ins)) {
+                ins.value = same[ins.value];
+                used.set(ins.value);
+            }
+        }
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.opcode == TAC.Opcode.LABEL && !used.get(ins.value)) { function.set(i, null); }
+        }
+        return function.compact() > 0;
+    }
+
+    /* t = a < b; ifz t == true goto L   becomes   ifz a < b goto L
+       when t is not live after the ifz. Comparing t to false, or to a
+       literal with !=, negates the condition; t = !a compares a instead,
+       negated, and t = a compares a. */
+    private boolean fuse(TAC.Function function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        Collection<String> atReturn = tac.globals;
+        if (calls.isRecursive(function.name)) {
+            // The inner calls write what the outer one reads after them.
+            HashSet<String> all = new HashSet<>(tac.globals);
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                if (ins.result != null) { all.add(ins.result); }
+            }
+            atReturn = all;
+        }
+        Liveness liveness = new Liveness(cfg, tac.globals, atReturn);
+
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            int i = block.end - 2;
+            if (i < block.start) { continue; }
+            TAC.Instruction def = function.get(i), jump = function.get(i + 1);
+            if (jump.opcode != TAC.Opcode.IFZ || def.result == null ||
+                tac.globals.contains(def.result) || liveness.isLiveOut(block, def.result)) { continue; }
+
+            TAC.Instruction fused = null;
+            if (def.opcode == TAC.Opcode.COPY) {
+                fused = TAC.Instruction.ifz(replace(jump.left, def), jump.operator,
+                                            replace(jump.right, def), jump.value);
+                if (fused.left.equals(jump.left) && Objects.equals(fused.right, jump.right)) { fused = null; }
+            } else if (jump.operator != null && jump.left.equals(def.result) &&
+                       isBooleanLiteral(jump.right) && (jump.operator == TAC.Operator.EQUAL ||
+                       jump.operator == TAC.Operator.DIFFERENT)) {
+                // Whether the ifz jumps when t is false.
+                boolean whenFalse = jump.right.equals("true") == (jump.operator == TAC.Operator.EQUAL);
+                if (def.opcode == TAC.Opcode.BINARY && isComparison(def.operator)) {
+                    TAC.Operator op = whenFalse ? def.operator : negate(def.operator);
+                    fused = TAC.Instruction.ifz(def.left, op, def.right, jump.value);
+                } else if (def.opcode == TAC.Opcode.UNARY && def.operator == TAC.Operator.NOT) {
+                    fused = TAC.Instruction.ifz(def.left, TAC.Operator.EQUAL,
+                                                whenFalse ? "false" : "true", jump.value);
+                }
+            }
+            if (fused == null) { continue; }
+            function.set(i, null);
+            function.set(i + 1, fused);
+        }
+        return function.compact() > 0;
+    }
+
+    private static String replace(String atom, TAC.Instruction copy) {
+        return copy.result.equals(atom) ? copy.left : atom;
+    }
+
+    private static boolean isBooleanLiteral(String atom) {
+        return "true".equals(atom) || "false".equals(atom);
+    }
+
+    private static boolean isComparison(TAC.Operator op) {
+        return op != TAC.Operator.PLUS && op != TAC.Operator.MINUS && op != TAC.Operator.AND &&
+               op != TAC.Operator.OR && op != TAC.Operator.NOT;
+    }
+
+    static TAC.Operator negate(TAC.Operator op) {
+        switch (op) {
+            case EQUAL:     return TAC.Operator.DIFFERENT;
+            case DIFFERENT: return TAC.Operator.EQUAL;
+            case GREATER:   return TAC.Operator.LESSEQ;
+            case GREATEREQ: return TAC.Operator.LESS;
+            case LESS:      return TAC.Operator.GREATEREQ;
+            default:        return TAC.Operator.GREATER;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+import java.util.*;
+
+/* A function in static single assignment form. Each variable other than
+   the globals is split into versions written once, and where versions
+   meet, phis choose between them by the block the code comes from. The
+   version 0 of a variable is its value on entry and keeps its name, the
+   others are named v#k until the form is left. Phis are only placed
+   where the variable is live.
+
+   Leaving the form gives the versions a phi links, and those which are
+   never live at the same time, a single name: that of their variable if
+   possible, else a new temporary. A phi whose versions could not all
+   get its name becomes copies at the end of each predecessor, straight
+   into its result where no other value of that name is live, else
+   through a temporary read at the start of the block. Unreachable
+   blocks are dropped.
+
+   Calls may write globals only, so this is not for functions which may
+   call themselves, nor for those whose entry block can be jumped to. */
+class SSAForm {
+    static class Phi {
+        final String variable;
+        String result;
+        final String[] args; // By predecessor of the block.
+
+        Phi(String variable, int predecessors) {
+            this.variable = variable;
+            args          = new String[predecessors];
+        }
+    }
+
+    final TAC.Function function;
+    final ControlFlowGraph cfg;
+    final Dominators dominators;
+    final ArrayList<ArrayList<TAC.Instruction>> code; // Of each block, null once removed.
+    final ArrayList<ArrayList<Phi>> phis;
+
+    private final Set<String> globals;
+    private final HashMap<String, String> variables; // Of each version.
+
+    SSAForm(TAC.Function function, Set<String> globals) {
+        this.function = function;
+        this.globals  = globals;
+        cfg        = new ControlFlowGraph(function);
+        dominators = new Dominators(cfg);
+        code       = new ArrayList<>();
+        phis       = new ArrayList<>();
+        variables  = new HashMap<>();
+
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            ArrayList<TAC.Instruction> instructions = new ArrayList<>();
+            if (dominators.reachable.get(block.index)) {
+                for (int i = block.start; i < block.end; i++) {
+                    TAC.Instruction ins = function.get(i);
+                    instructions.add(ins);
+                    if (isLocal(ins.result)) { variables.put(ins.result, ins.result); }
+                    for (String use : Liveness.uses(ins)) {
+                        if (isLocal(use)) { variables.put(use, use); }
+                    }
+                }
+            }
+            code.add(instructions);
+            phis.add(new ArrayList<>());
+        }
+        placePhis();
+        rename();
+    }
+
+    static boolean canConvert(TAC.Function function, CallGraph calls) {
+        if (calls.isRecursive(function.name)) { return false; }
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        return cfg.entry() != null && cfg.entry().predecessors.isEmpty();
+    }
+
+    boolean isLocal(String atom) {
+        return atom != null && !TAC.isLiteral(atom) && !globals.contains(atom);
+    }
+
+    // Whether an atom is a version, of a variable which is not global.
+    boolean isVersion(String atom) { return atom != null && variables.containsKey(atom); }
+
+    private void placePhis() {
+        List<String> none = Collections.emptyList();
+        Liveness liveness = new Liveness(cfg, none, none);
+        BitSet[] frontiers = dominators.frontiers();
+
+        LinkedHashMap<String, BitSet> definedIn = new LinkedHashMap<>();
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            for (TAC.Instruction ins : code.get(block.index)) {
+                if (isLocal(ins.result)) {
+                    definedIn.computeIfAbsent(ins.result, v -> new BitSet()).set(block.index);
+                }
+            }
+        }
+
+        // Where a definition stops dominating, the variable may have two
+        // values, the phi is then a definition too.
+        for (Map.Entry<String, BitSet> variable : definedIn.entrySet()) {
+            int id = liveness.id(variable.getKey());
+            BitSet placed = new BitSet();
+            BitSet queued = (BitSet) variable.getValue().clone();
+            ArrayDeque<Integer> work = new ArrayDeque<>();
+            for (int b = queued.nextSetBit(0); b >= 0; b = queued.nextSetBit(b + 1)) { work.add(b); }
+            while (!work.isEmpty()) {
+                BitSet frontier = frontiers[work.poll()];
+                for (int f = frontier.nextSetBit(0); f >= 0; f = frontier.nextSetBit(f + 1)) {
+                    if (placed.get(f) || !liveness.liveIn[f].get(id)) { continue; }
+                    placed.set(f);
+                    int predecessors = cfg.blocks.get(f).predecessors.size();
+                    phis.get(f).add(new Phi(variable.getKey(), predecessors));
+                    if (!queued.get(f)) {
+                        queued.set(f);
+                        work.add(f);
+                    }
+                }
+            }
+        }
+    }
+
+    // Down the dominator tree, the current version of each variable on a stack.
+    private void rename() {
+        HashMap<String, ArrayDeque<String>> stacks = new HashMap<>();
+        HashMap<String, Integer> versions = new HashMap<>();
+        ArrayList<ArrayList<String>> pushed = new ArrayList<>();
+        for (int i = 0; i < cfg.blocks.size(); i++) { pushed.add(new ArrayList<>()); }
+
+        // A block to enter, or ~block to leave.
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        if (cfg.entry() != null) { work.push(0); }
+        while (!work.isEmpty()) {
+            int b = work.pop();
+            if (b < 0) {
+                for (String variable : pushed.get(~b)) { stacks.get(variable).pop(); }
+                continue;
+            }
+
+            ArrayList<String> defined = pushed.get(b);
+            for (Phi phi : phis.get(b)) {
+                phi.result = newVersion(phi.variable, stacks, versions);
+                defined.add(phi.variable);
+            }
+            for (TAC.Instruction ins : code.get(b)) {
+                if (ins.opcode != TAC.Opcode.CALL) { ins.left = current(ins.left, stacks); }
+                ins.right = current(ins.right, stacks);
+                if (isLocal(ins.result)) {
+                    defined.add(ins.result);
+                    ins.result = newVersion(ins.result, stacks, versions);
+                }
+            }
+            ControlFlowGraph.Block block = cfg.blocks.get(b);
+            for (ControlFlowGraph.Block next : block.successors) {
+                int j = next.predecessors.indexOf(block);
+                for (Phi phi : phis.get(next.index)) { phi.args[j] = current(phi.variable, stacks); }
+            }
+
+            work.push(~b);
+            List<ControlFlowGraph.Block> children = dominators.children.get(b);
+            for (int i = children.size() - 1; i >= 0; i--) { work.push(children.get(i).index); }
+        }
+    }
+
+    private String newVersion(String variable, HashMap<String, ArrayDeque<String>> stacks,
+                              HashMap<String, Integer> versions) {
+        String version = variable + "#" + versions.merge(variable, 1, Integer::sum);
+        variables.put(version, variable);
+        stacks.computeIfAbsent(variable, v -> new ArrayDeque<>()).push(version);
+        return version;
+    }
+
+    private String current(String atom, HashMap<String, ArrayDeque<String>> stacks) {
+        if (!isLocal(atom)) { return atom; }
+        ArrayDeque<String> stack = stacks.get(atom);
+        return stack == null || stack.isEmpty() ? atom : stack.peek();
+    }
+
+    /* Rewrite the function out of the form. The versions are numbered,
+       and the liveness is that of the form: the args of a phi are live
+       at the end of their predecessor, its result from the start of its
+       block, where all the phis are defined at once. */
+    public void leave() {
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        for (String version : variables.keySet()) {
+            ids.put(version, names.size());
+            names.add(version);
+        }
+        int n = names.size(), blocks = cfg.blocks.size();
+        BitSet reachable = dominators.reachable;
+
+        BitSet[] uses = new BitSet[blocks], defs = new BitSet[blocks], phiDefs = new BitSet[blocks];
+        BitSet[] liveIn = new BitSet[blocks], liveOut = new BitSet[blocks];
+        for (int b = 0; b < blocks; b++) {
+            uses[b] = new BitSet(); defs[b] = new BitSet(); phiDefs[b] = new BitSet();
+            liveIn[b] = new BitSet(); liveOut[b] = new BitSet();
+            for (Phi phi : phis.get(b)) { phiDefs[b].set(ids.get(phi.result)); }
+            for (TAC.Instruction ins : code.get(b)) {
+                if (ins == null) { continue; }
+                for (String use : Liveness.uses(ins)) {
+                    if (isVersion(use) && !defs[b].get(ids.get(use))) { uses[b].set(ids.get(use)); }
+                }
+                if (isVersion(ins.result)) { defs[b].set(ids.get(ins.result)); }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; b--) {
+                if (!reachable.get(b)) { continue; }
+                ControlFlowGraph.Block block = cfg.blocks.get(b);
+                BitSet out = new BitSet();
+                for (ControlFlowGraph.Block next : block.successors) {
+                    BitSet in = (BitSet) liveIn[next.index].clone();
+                    in.andNot(phiDefs[next.index]);
+                    out.or(in);
+                    int j = next.predecessors.indexOf(block);
+                    for (Phi phi : phis.get(next.index)) {
+                        if (isVersion(phi.args[j])) { out.set(ids.get(phi.args[j])); }
+                    }
+                }
+                BitSet in = (BitSet) out.clone();
+                in.andNot(defs[b]);
+                in.or(uses[b]);
+                if (!out.equals(liveOut[b]) || !in.equals(liveIn[b])) {
+                    liveOut[b] = out;
+                    liveIn[b]  = in;
+                    changed = true;
+                }
+            }
+        }
+
+        // A version interferes with what is live where it is written, the
+        // source of a copy aside.
+        BitSet[] interferes = new BitSet[n];
+        for (int i = 0; i < n; i++) { interferes[i] = new BitSet(); }
+        for (int b = reachable.nextSetBit(0); b >= 0; b = reachable.nextSetBit(b + 1)) {
+            BitSet live = (BitSet) liveOut[b].clone();
+            ArrayList<TAC.Instruction> instructions = code.get(b);
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                TAC.Instruction ins = instructions.get(i);
+                if (ins == null) { continue; }
+                if (isVersion(ins.result)) {
+                    int d = ids.get(ins.result);
+                    BitSet others = (BitSet) live.clone();
+                    if (ins.opcode == TAC.Opcode.COPY && isVersion(ins.left)) {
+                        others.clear(ids.get(ins.left));
+                    }
+                    interfere(interferes, d, others);
+                    live.clear(d);
+                }
+                for (String use : Liveness.uses(ins)) {
+                    if (isVersion(use)) { live.set(ids.get(use)); }
+                }
+            }
+            live.or(phiDefs[b]);
+            for (int d = phiDefs[b].nextSetBit(0); d >= 0; d = phiDefs[b].nextSetBit(d + 1)) {
+                interfere(interferes, d, live);
+            }
+            if (b == 0) {
+                for (int d = live.nextSetBit(0); d >= 0; d = live.nextSetBit(d + 1)) {
+                    interfere(interferes, d, live);
+                }
+            }
+        }
+
+        // Webs of versions linked by phis, as long as they do not interfere
+        // and hold the entry values of a single variable at most.
+        int[] parent = new int[n];
+        BitSet[] members = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            parent[i]  = i;
+            members[i] = new BitSet();
+            members[i].set(i);
+        }
+        for (int b = reachable.nextSetBit(0); b >= 0; b = reachable.nextSetBit(b + 1)) {
+            for (Phi phi : phis.get(b)) {
+                for (String arg : phi.args) {
+                    if (!isVersion(arg)) { continue; }
+                    int x = find(parent, ids.get(phi.result)), y = find(parent, ids.get(arg));
+                    if (x == y || interfere(interferes, members[x], members[y])) { continue; }
+                    String entryX = entry(members[x], names), entryY = entry(members[y], names);
+                    if (entryX != null && entryY != null) { continue; }
+                    parent[y] = x;
+                    members[x].or(members[y]);
+                }
+            }
+        }
+
+        // Webs holding an entry value keep its name, the others take the
+        // name of their variable unless a web interfering has it.
+        String[] webNames = new String[n];
+        HashMap<String, BitSet> blocked = new HashMap<>();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < n; i++) {
+                if (find(parent, i) != i) { continue; }
+                String entry = entry(members[i], names);
+                if ((pass == 0) != (entry != null)) { continue; }
+                String name = entry != null ? entry : variables.get(names.get(i));
+                BitSet interfering = new BitSet();
+                for (int m = members[i].nextSetBit(0); m >= 0; m = members[i].nextSetBit(m + 1)) {
+                    interfering.or(interferes[m]);
+                }
+                BitSet taken = blocked.get(name);
+                if (entry == null && taken != null && taken.intersects(members[i])) {
+                    name = function.newTemporary();
+                }
+                webNames[i] = name;
+                blocked.computeIfAbsent(name, k -> new BitSet()).or(interfering);
+            }
+        }
+
+        /* Copies for the phis whose args do not all have their name, made
+           at the end of each predecessor, all at once: one is made when
+           nothing left to copy reads its result, a cycle is broken by
+           saving a result in a temporary. A phi whose result is needed
+           elsewhere after a predecessor, the block being one of several
+           it goes to, is copied through a temporary read at the start of
+           the block instead. */
+        ArrayList<ArrayList<TAC.Instruction>> heads = new ArrayList<>(), tails = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            heads.add(new ArrayList<>());
+            tails.add(new ArrayList<>());
+        }
+        for (int b = reachable.nextSetBit(0); b >= 0; b = reachable.nextSetBit(b + 1)) {
+            ControlFlowGraph.Block block = cfg.blocks.get(b);
+            ArrayList<HashSet<String>> kept = new ArrayList<>();
+            for (ControlFlowGraph.Block previous : block.predecessors) {
+                kept.add(reachable.get(previous.index) ?
+                         kept(previous, block, liveIn, phiDefs, ids, parent, webNames) : null);
+            }
+
+            ArrayList<ArrayList<String[]>> copies = new ArrayList<>();
+            for (int j = 0; j < block.predecessors.size(); j++) { copies.add(new ArrayList<>()); }
+            for (Phi phi : phis.get(b)) {
+                String result = nameOf(phi.result, ids, parent, webNames);
+                boolean direct = true;
+                for (int j = 0; j < phi.args.length; j++) {
+                    if (kept.get(j) == null) { continue; }
+                    String arg = nameOf(phi.args[j], ids, parent, webNames);
+                    if (!result.equals(arg) && kept.get(j).contains(result)) { direct = false; }
+                }
+                String temporary = direct ? null : function.newTemporary();
+                for (int j = 0; j < phi.args.length; j++) {
+                    if (kept.get(j) == null) { continue; }
+                    String arg = nameOf(phi.args[j], ids, parent, webNames);
+                    if (direct) {
+                        if (!result.equals(arg)) { copies.get(j).add(new String[] { result, arg }); }
+                    } else {
+                        tails.get(block.predecessors.get(j).index).add(TAC.Instruction.copy(temporary, arg));
+                    }
+                }
+                if (!direct) { heads.get(b).add(TAC.Instruction.copy(result, temporary)); }
+            }
+            for (int j = 0; j < copies.size(); j++) {
+                sequence(copies.get(j), tails.get(block.predecessors.get(j).index));
+            }
+        }
+
+        ArrayList<TAC.Instruction> out = new ArrayList<>();
+        for (int b = reachable.nextSetBit(0); b >= 0; b = reachable.nextSetBit(b + 1)) {
+            ArrayList<TAC.Instruction> instructions = new ArrayList<>();
+            for (TAC.Instruction ins : code.get(b)) {
+                if (ins == null) { continue; }
+                ins.result = nameOf(ins.result, ids, parent, webNames);
+                if (ins.opcode != TAC.Opcode.CALL) { ins.left = nameOf(ins.left, ids, parent, webNames); }
+                ins.right = nameOf(ins.right, ids, parent, webNames);
+                if (ins.opcode == TAC.Opcode.COPY && ins.result.equals(ins.left)) { continue; }
+                instructions.add(ins);
+            }
+
+            int head = !instructions.isEmpty() &&
+                instructions.get(0).opcode == TAC.Opcode.LABEL ? 1 : 0;
+            instructions.addAll(head, heads.get(b));
+            int tail = instructions.size();
+            if (tail > 0 && ControlFlowGraph.endsBlock(instructions.get(tail - 1))) { tail--; }
+            instructions.addAll(tail, tails.get(b));
+            out.addAll(instructions);
+        }
+        function.setCode(out);
+    }
+
+    // The names to keep at the end of previous, going to block: those read
+    // by its jump and those needed after its other successors.
+    private HashSet<String> kept(ControlFlowGraph.Block previous, ControlFlowGraph.Block block,
+                                 BitSet[] liveIn, BitSet[] phiDefs, HashMap<String, Integer> ids,
+                                 int[] parent, String[] webNames) {
+        HashSet<String> kept = new HashSet<>();
+        BitSet live = (BitSet) liveIn[block.index].clone();
+        live.andNot(phiDefs[block.index]);
+        for (ControlFlowGraph.Block next : previous.successors) {
+            if (next == block) { continue; }
+            live.or(liveIn[next.index]);
+            int j = next.predecessors.indexOf(previous);
+            for (Phi phi : phis.get(next.index)) {
+                kept.add(nameOf(phi.result, ids, parent, webNames));
+                kept.add(nameOf(phi.args[j], ids, parent, webNames));
+            }
+        }
+        for (Map.Entry<String, Integer> version : ids.entrySet()) {
+            if (live.get(version.getValue())) { kept.add(nameOf(version.getKey(), ids, parent, webNames)); }
+        }
+        TAC.Instruction last = function.get(previous.end - 1);
+        if (ControlFlowGraph.endsBlock(last)) {
+            for (String use : Liveness.uses(last)) { kept.add(nameOf(use, ids, parent, webNames)); }
+        }
+        return kept;
+    }
+
+    // Copies made as if all at once, each pair a result and what it gets.
+    private void sequence(ArrayList<String[]> copies, ArrayList<TAC.Instruction> code) {
+        while (!copies.isEmpty()) {
+            String[] ready = null;
+            for (String[] copy : copies) {
+                boolean read = false;
+                for (String[] other : copies) { read |= other != copy && other[1].equals(copy[0]); }
+                if (!read) { ready = copy; }
+            }
+            if (ready == null) {
+                ready = copies.get(0);
+                String temporary = function.newTemporary();
+                code.add(TAC.Instruction.copy(temporary, ready[0]));
+                for (String[] other : copies) {
+                    if (other[1].equals(ready[0])) { other[1] = temporary; }
+                }
+            }
+            code.add(TAC.Instruction.copy(ready[0], ready[1]));
+            copies.remove(ready);
+        }
+    }
+
+    private static void interfere(BitSet[] interferes, int d, BitSet live) {
+        for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+            if (l == d) { continue; }
+            interferes[d].set(l);
+            interferes[l].set(d);
+        }
+    }
+
+    private static boolean interfere(BitSet[] interferes, BitSet a, BitSet b) {
+        for (int m = a.nextSetBit(0); m >= 0; m = a.nextSetBit(m + 1)) {
+            if (interferes[m].intersects(b)) { return true; }
+        }
+        return false;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // The entry value among versions, if any.
+    private String entry(BitSet versions, ArrayList<String> names) {
+        for (int m = versions.nextSetBit(0); m >= 0; m = versions.nextSetBit(m + 1)) {
+            if (variables.get(names.get(m)).equals(names.get(m))) { return names.get(m); }
+        }
+        return null;
+    }
+
+    private String nameOf(String atom, HashMap<String, Integer> ids, int[] parent, String[] webNames) {
+        if (!isVersion(atom)) { return atom; }
+        return webNames[find(parent, ids.get(atom))];
+    }
+}
@@ -0,0 +1,54 @@
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* Compiles main blocks of 100,000 statements and more, written to a
+   file through TACEmitter, on a thread with a small stack. The lists of
+   the grammar are repetitions, which the analyser and the generator
+   loop over, so the stack depth does not grow with the number of
+   statements and the time per statement stays the same. Fails if a
+   compilation does not succeed, e.g. on a stack overflow. */
+public class ScalingBenchmark {
+    static final long stack = 1 << 19; // Bytes, a quarter of the default.
+
+    static String program(int statements) {
+        StringBuilder source = new StringBuilder("main {\n    var x:integer;\n    x = 0;\n");
+        for (int i = 0; i < statements / 2; i++) {
+            source.append("    x = x + ").append(i % 100 + 1).append(";\n");
+            source.append("    if x > 1000 { x = x - 1000; } else { skip; }\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    // Compile the file on a thread with that stack, returning the time taken in nanoseconds.
+    static long compile(Path input, Path output) throws InterruptedException {
+        long[] time = { -1 };
+        Thread thread = new Thread(null, () -> {
+            PrintStream report = new PrintStream(new ByteArrayOutputStream());
+            long start = System.nanoTime();
+            if (new Compilation(input, output).run(report)) { time[0] = System.nanoTime() - start; }
+        }, "compilation", stack);
+        thread.start();
+        thread.join();
+        if (time[0] < 0) { throw new IllegalStateException(input + " does not compile"); }
+        return time[0];
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int[] sizes = { 100_000, 200_000, 400_000 };
+
+        Path directory = Files.createTempDirectory("scaling-benchmark");
+        Path input = directory.resolve("program.ccl"), output = directory.resolve("program.tac");
+        System.out.println("Stack of " + stack / 1024 + " KB, " + rounds + " rounds:");
+        for (int statements : sizes) {
+            Files.write(input, program(statements).getBytes());
+            long[] times = new long[rounds];
+            for (int r = 0; r < rounds; r++) { times[r] = compile(input, output); }
+            long median = CacheBenchmark.median(times);
+            System.out.println(statements + " statements: " + CompileClient.millis(median) + " ms (median), " +
+                String.format("%.2f", median / 1e3 / statements) + " us per statement, " +
+                Files.size(output) + " bytes written");
+        }
+    }
+}
@@ -1,33 +1,252 @@
 import org.antlr.v4.runtime.tree.*;
 
+import java.util.concurrent.*;
 import java.util.*;
+import java.io.*;
 
 class CCALSemanticAnalyser {
     private boolean analysisSucceeded = true;
     private final Visitor visitor;
     private final ParseTree tree;
+    private final ForkJoinPool pool; // If null, analysis is sequential.
+    private Stats stats = Stats.none;
 
     CCALSemanticAnalyser(ParseTree tree) { 
+        this(tree, ForkJoinPool.commonPool());
+    }
+
+    CCALSemanticAnalyser(ParseTree tree, ForkJoinPool pool) { 
         this.tree = tree; 
+        this.pool = pool;
         visitor   = new Visitor();
     }
 
     private static void failWith(final String errorMsg) {
-        System.err.println(errorMsg);
-        System.exit(1);
+        throw new CompilationException(errorMsg);
+    }
+
+    // Each pass is measured as a phase of its own.
+    public CCALSemanticAnalyser withStats(Stats stats) {
+        this.stats = stats;
+        return this;
     }
     
     public void performAnalysis() { 
-        visitor.visit(tree);     
+        if (pool == null) { stats.measure("semantic analysis", () -> visitor.visit(tree)); } 
+        else { analyseInParallel((CCALParser.ProgramContext) tree); }
         if (getErrors().size() == 0) { analysisSucceeded = true; } 
         else { analysisSucceeded = false; }
     }
 
+    /* Analyse a program given by parts, the tree being null: a function
+       whose entry is found in the cache is not checked again, the others
+       are given one, for the caller to store once their code is known. */
+    public void performAnalysis(CCALParser.Decl_listContext decls, List<FunctionCache.Unit> units,
+                                CCALParser.MainContext main, FunctionCache cache) {
+        analyseInParallel(decls, units, main, cache);
+        analysisSucceeded = getErrors().size() == 0;
+    }
+
+    /* What checking a function on its own gives, the global entities it
+       writes being encoded, see encode(). Kept by FunctionCache. */
+    static class FunctionResult {
+        final String name, returnType;
+        final int arguments;
+        boolean kindChanged;
+        int symbols; // Declared in the function, itself included.
+        final ArrayList<String> errors, pending, warnings, globalWrites, calls;
+
+        FunctionResult(String name, String returnType, int arguments) {
+            this.name       = name;
+            this.returnType = returnType;
+            this.arguments  = arguments;
+            errors       = new ArrayList<String>();
+            pending      = new ArrayList<String>();
+            warnings     = new ArrayList<String>();
+            globalWrites = new ArrayList<String>();
+            calls        = new ArrayList<String>();
+        }
+    }
+
+    private void analyseInParallel(CCALParser.ProgramContext program) {
+        ArrayList<FunctionCache.Unit> units = new ArrayList<>();
+        for (CCALParser.FuncContext func : program.func_list().func()) {
+            units.add(new FunctionCache.Unit(func));
+        }
+        analyseInParallel(program.decl_list(), units, program.main(), null);
+    }
+
+    /* Function bodies are checked in parallel, each against a copy of the
+       global scope as it is after the global declarations and the previous
+       function signatures. The bodies read and modify the global scope,
+       so the results are merged in source order afterwards:
+        - an error on a global variable never assigned is only kept if no
+          previous function assigned it,
+        - the changes made to the global scope are replayed.
+       If a function changes the kind of a global entity (e.g. assigns to
+       a function name), the next functions are checked again, one after
+       the other, as the analysis would otherwise differ.
+
+       The result of a function only depends on its text and on the global
+       entities it names, which make its key in the cache. */
+    private void analyseInParallel(CCALParser.Decl_listContext decls, List<FunctionCache.Unit> units,
+                                   CCALParser.MainContext main, FunctionCache cache) {
+        HashMap<String, Entity> global = new HashMap<>();
+        visitor.memory.push(global);
+        stats.measure("global declarations", () -> visitor.visit(decls));
+
+        int n = units.size();
+        Visitor[] visitors = new Visitor[n];
+        Entity[] functions = new Entity[n];
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        stats.measure("function signatures", () -> declare(units, global, visitors, functions, tasks, cache));
+        for (ForkJoinTask<?> task : tasks) { task.join(); }
+        stats.measure("merging", () -> merge(units, global, visitors, functions, cache != null));
+        stats.measure("main", () -> visitor.visitMainScope(main));
+    }
+
+    // Declares the functions, and starts checking those not found in the cache.
+    private void declare(List<FunctionCache.Unit> units, HashMap<String, Entity> global, Visitor[] visitors,
+                         Entity[] functions, List<ForkJoinTask<?>> tasks, FunctionCache cache) {
+        // Globals and signatures of the functions declared so far.
+        HashMap<String, Entity> declared = new HashMap<>(global);
+        for (int i = 0; i < units.size(); i++) {
+            final FunctionCache.Unit unit = units.get(i);
+            if (cache != null) {
+                unit.key   = cache.key(unit, scope(declared, unit.ids()));
+                unit.entry = cache.load(unit.key);
+                if (unit.entry != null && !declared.containsKey(unit.entry.result.name)) {
+                    FunctionResult result = unit.entry.result;
+                    unit.found   = true;
+                    functions[i] = new Entity(result.name, Type.valueOf(result.returnType),
+                                              result.arguments);
+                    declared.put(result.name, functions[i]);
+                    continue;
+                }
+                unit.entry = null;
+            }
+
+            final CCALParser.FuncContext func = unit.tree();
+            final Visitor v = new Visitor(new HashMap<>(declared));
+            final Entity function = v.declareFunction(func);
+            visitors[i]  = v;
+            functions[i] = function;
+            if (function == null) { continue; }
+            declared.put(function.identifier, function);
+            tasks.add(pool.submit(() -> stats.measure("function bodies", () -> {
+                v.memory.push(new HashMap<String, Entity>());
+                v.checkFunction(func, function);
+                v.memory.pop();
+            })));
+        }
+    }
+
+    private void merge(List<FunctionCache.Unit> units, HashMap<String, Entity> global,
+                       Visitor[] visitors, Entity[] functions, boolean cached) {
+        boolean sequential = false;
+        for (int i = 0; i < units.size(); i++) {
+            FunctionCache.Unit unit = units.get(i);
+            if (functions[i] == null) { 
+                visitor.errors.addAll(visitors[i].errors);
+                unit.key = null;
+                continue;
+            }
+            global.put(functions[i].identifier, functions[i]);
+
+            if (sequential) {
+                // Not what it gives on its own, so not cached.
+                unit.key   = null;
+                unit.entry = null;
+                unit.found = false;
+                visitor.memory.push(new HashMap<String, Entity>());
+                visitor.checkFunction(unit.tree(), functions[i]);
+                visitor.memory.pop();
+                visitor.symbols++; // Its locals are counted by the visitor.
+                continue;
+            }
+
+            FunctionResult result = unit.found ? unit.entry.result : result(visitors[i], functions[i]);
+            if (cached && !unit.found) { unit.entry = new FunctionCache.Entry(result, null); }
+            for (int e = 0; e < result.errors.size(); e++) {
+                String id = result.pending.get(e);
+                if (id == null || global.get(id).state == State.DECLARED) {
+                    visitor.errors.add(result.errors.get(e));
+                }
+            }
+            visitor.warnings.addAll(result.warnings);
+            visitor.symbols += result.symbols;
+            visitor.calls.put(result.name, new LinkedHashSet<String>(result.calls));
+            for (String write : result.globalWrites) {
+                Entity entity = decode(write);
+                global.replace(entity.identifier, entity);
+            }
+            // Kept in the entry, so a function found in the cache also
+            // makes the next ones be checked again, see CacheTest.
+            sequential = result.kindChanged;
+        }
+    }
+
+    private FunctionResult result(Visitor v, Entity function) {
+        FunctionResult result = new FunctionResult(function.identifier,
+            function.returnType.name(), function.arguments);
+        result.kindChanged = v.kindChanged;
+        result.symbols     = v.symbols;
+        result.errors.addAll(v.errors);
+        result.pending.addAll(v.pending);
+        result.warnings.addAll(v.warnings);
+        for (Entity entity : v.globalWrites) { result.globalWrites.add(encode(entity)); }
+        Set<String> calls = v.calls.get(function.identifier);
+        if (calls != null) { result.calls.addAll(calls); }
+        return result;
+    }
+
+    // The global entities of the ids, as they are in the scope.
+    private String scope(HashMap<String, Entity> scope, Set<String> ids) {
+        StringBuilder description = new StringBuilder();
+        for (String id : ids) {
+            Entity entity = scope.get(id);
+            description.append(entity != null ? encode(entity) : id + " -").append('\n');
+        }
+        return description.toString();
+    }
+
+    private String encode(Entity entity) {
+        return entity.identifier + " " + entity.type + " " + entity.returnType + " " +
+               entity.arguments + " " + entity.state;
+    }
+
+    private Entity decode(String encoded) {
+        String[] parts = encoded.split(" ");
+        Type type = Type.valueOf(parts[1]);
+        State state = State.valueOf(parts[4]);
+        if (type != Type.FUNCTION) { return new Entity(parts[0], type, state); }
+        return new Entity(parts[0], Type.valueOf(parts[2]), Integer.parseInt(parts[3]), state);
+    }
+
+    /* The functions main may run, through calls in its body or in the
+       global declarations, or in the functions those call. */
+    public Set<String> reachableFunctions() {
+        LinkedHashSet<String> reached = new LinkedHashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(Visitor.main);
+        while (!work.isEmpty()) {
+            Set<String> callees = visitor.calls.get(work.pop());
+            if (callees == null) { continue; }
+            for (String callee : callees) {
+                if (reached.add(callee)) { work.push(callee); }
+            }
+        }
+        return reached;
+    }
+
     public ArrayList<String> getWarnings() { return visitor.warnings;  }
     public ArrayList<String> getErrors()   { return visitor.errors;    }
     public boolean analysisSucceeded()     { return analysisSucceeded; }
+    public int symbols()                   { return visitor.symbols;   }
 
-    public void outputResult() {
+    public void outputResult() { outputResult(System.out); }
+
+    public void outputResult(PrintStream out) {
         final String red    = "\u001B[31m";
         final String yellow = "\u001B[33m";
         final String reset  = "\u001B[0m";
@@ -35,24 +254,24 @@ class CCALSemanticAnalyser {
         ArrayList<String> errors   = getErrors();
         ArrayList<String> warnings = getWarnings();
 
-        if (errors.size() == 0) { System.out.println("No errors occured."); } 
+        if (errors.size() == 0) { out.println("No errors occured."); } 
         else {
             int nErrors = errors.size();
-            System.out.println("Semantic analysis reported the following "+ red + 
+            out.println("Semantic analysis reported the following "+ red + 
                 nErrors + reset + " errors:");
             for (int i = 1; i <= nErrors; i++) {
-                System.out.println(red + " - Error " + i + ": " + 
+                out.println(red + " - Error " + i + ": " + 
                     errors.get(i-1) + reset);
             }
         }
 
-        if (warnings.size() == 0) { System.out.println("\nNo warnings."); } 
+        if (warnings.size() == 0) { out.println("\nNo warnings."); } 
         else {
             int nWarnings = warnings.size();
-            System.out.println("\nAdditionally, semantic analysis reported the" + 
+            out.println("\nAdditionally, semantic analysis reported the" + 
                 " following " + yellow + nWarnings + reset + " warnings:");
             for (int i = 1; i <= nWarnings; i++) {
-                System.out.println(yellow + " - Warning " + i + ": " + 
+                out.println(yellow + " - Warning " + i + ": " + 
                     warnings.get(i-1) + reset);
             }
         }
@@ -129,14 +348,56 @@ class CCALSemanticAnalyser {
         public ArrayList<String> errors;
         public ArrayList<String> warnings;
 
+        /* Only used when checking a function against a copy of the global
+           scope: for each error, the global variable it requires to be
+           never assigned (or null), and the changes made to the copy. */
+        public ArrayList<String> pending;
+        public ArrayList<Entity> globalWrites;
+        public boolean kindChanged;
+
+        /* The functions each function calls, by name, main standing for
+           the main scope and the global declarations. */
+        static final String main = "main";
+        public HashMap<String, LinkedHashSet<String>> calls;
+        private String caller;
+
+        int symbols; // Entities declared, for the stats.
+
         Visitor() {
             memory   = new Stack<HashMap<String, Entity>>();
             errors   = new ArrayList<String>();
             warnings = new ArrayList<String>();
+            calls    = new HashMap<String, LinkedHashSet<String>>();
+            caller   = main;
+        }
+
+        Visitor(HashMap<String, Entity> global) {
+            this();
+            memory.push(global);
+            pending      = new ArrayList<String>();
+            globalWrites = new ArrayList<Entity>();
+            kindChanged  = false;
         }
 
         private void error(String id, String why, String where) {
             errors.add("<" + id + "> " + why + " ("+where+").");
+            if (pending != null) { pending.add(null); }
+        }
+
+        // Error on a variable, found in the given scope, never assigned.
+        private void neverAssignedError(int scope, String id, String why, String where) {
+            error(id, why, where);
+            if (pending != null && scope == 0) { pending.set(pending.size() - 1, id); }
+        }
+
+        private void replace(int scope, String id, Entity entity) {
+            Entity previous = memory.get(scope).replace(id, entity);
+            if (previous != null && scope == 0 && globalWrites != null) {
+                globalWrites.add(entity);
+                if (previous.type != entity.type || 
+                    previous.returnType != entity.returnType ||
+                    previous.arguments != entity.arguments) { kindChanged = true; }
+            }
         }
 
         private void warning(String id, String why) {
@@ -220,20 +481,22 @@ class CCALSemanticAnalyser {
             // Visit Func List
             if (ctx.func_list() != null) { visit(ctx.func_list()); }
 
+            visitMainScope(ctx.main());
+            return null;
+        }
+
+        void visitMainScope(CCALParser.MainContext ctx) {
             // Visit Main
             memory.push(new HashMap<String, Entity>()); // Main Scope
-            visit(ctx.main());
+            visit(ctx);
             memory.pop();
 
             addAllNeverAssignedWarnings();
-            return null;
         }
 
         @Override
         public Entity visitDecl_list(CCALParser.Decl_listContext ctx) {
-            if (ctx.decl(0) != null) { visit(ctx.decl(0)); }
-            if (ctx.decl_list(0) != null) { visit(ctx.decl_list(0)); }
-
+            for (CCALParser.DeclContext decl : ctx.decl()) { visit(decl); }
             return null;
         }
 
@@ -250,6 +513,7 @@ class CCALSemanticAnalyser {
 
             Entity variable = new Entity(id, type, State.DECLARED);
             memory.peek().put(id, variable);
+            symbols++;
             return variable;
         }
 
@@ -273,41 +537,52 @@ class CCALSemanticAnalyser {
 
             Entity constant = new Entity(id, type, State.CONSTANT); 
             memory.peek().put(id, constant);
+            symbols++;
             return constant;
         }
 
         @Override
         public Entity visitFunc_list(CCALParser.Func_listContext ctx) {
-            if (ctx.func(0) != null) { 
+            for (CCALParser.FuncContext func : ctx.func()) { 
                 // Each function has its own scope.
                 memory.push(new HashMap<String, Entity>());
-                visit(ctx.func(0)); 
+                visit(func); 
                 memory.pop();
             }
-
-            if (ctx.func_list(0) != null) { visit(ctx.func_list(0)); }
-
             return null;
         }
 
 
         @Override
         public Entity visitFunc(CCALParser.FuncContext ctx) {
+            Entity function = declareFunction(ctx);
+            if (function != null) { checkFunction(ctx, function); }
+            return function;
+        }
+
+        // Add a function to the global scope, null if already defined.
+        Entity declareFunction(CCALParser.FuncContext ctx) {
             String id = ctx.ID().getText();
-            Entity function = null;
 
             // Error if func is defined more than once.
             if (memory.get(0).containsKey(id)) {
                 alreadyDefinedError(id, ctx.getText());
-                return function;
-            } else {
-                Type returnType = getReturnType(ctx);
-                int  args = getNumberParams(ctx.param_list());
-
-                function = new Entity(id, returnType, args);
-                memory.get(0).put(id, function);
+                return null;
             }
 
+            Type returnType = getReturnType(ctx);
+            int  args = getNumberParams(ctx.param_list());
+
+            Entity function = new Entity(id, returnType, args);
+            memory.get(0).put(id, function);
+            symbols++;
+            return function;
+        }
+
+        void checkFunction(CCALParser.FuncContext ctx, Entity function) {
+            String id = function.identifier;
+            caller = id;
+
             if (ctx.param_list() != null) { visit(ctx.param_list()); }
             if (ctx.decl_list()  != null) { visit(ctx.decl_list());  }
             if (ctx.stmt_block() != null) { visit(ctx.stmt_block()); }
@@ -325,8 +600,7 @@ class CCALSemanticAnalyser {
 
             // Add a warning for each unused variable.
             addAllNeverAssignedWarnings();
-
-            return function;
+            caller = main;
         }
 
         @Override
@@ -345,6 +619,7 @@ class CCALSemanticAnalyser {
                 neverDefinedError(id, ctx.getText());
                 return new Entity("undefined", Type.UNDEF, -1);
             } else { funcCall = memory.get(0).get(id); }
+            calls.computeIfAbsent(caller, k -> new LinkedHashSet<String>()).add(id);
 
             int numberArgs = getNumberArgs(ctx.arg_list());
 
@@ -359,7 +634,7 @@ class CCALSemanticAnalyser {
                 funcCall.arguments, State.USED
             );
 
-            memory.get(0).replace(funcCall.identifier, stateChanged);
+            replace(0, funcCall.identifier, stateChanged);
 
             visit(ctx.arg_list());
             return stateChanged;
@@ -367,12 +642,12 @@ class CCALSemanticAnalyser {
 
         @Override
         public Entity visitArg_list(CCALParser.Arg_listContext ctx) {
-            if (ctx.argument_list(0) != null) { return visit(ctx.argument_list(0)); }
+            for (CCALParser.ArgumentContext arg : ctx.argument()) { visit(arg); }
             return null;
         }
 
         @Override
-        public Entity visitArgument_list(CCALParser.Argument_listContext ctx) {
+        public Entity visitArgument(CCALParser.ArgumentContext ctx) {
             if (ctx.ID() != null) {
                 String  id = ctx.ID().getText();
                 boolean declared = false;
@@ -385,7 +660,7 @@ class CCALSemanticAnalyser {
                             error(id, "passed as argument but is a function", 
                                 ctx.parent.parent.getText());
                         } else if (memory.get(i).get(id).state == State.DECLARED) {
-                            error(id, "passed as argument but was never assigned", 
+                            neverAssignedError(i, id, "passed as argument but was never assigned", 
                                 ctx.parent.parent.getText());
                         }
 
@@ -397,7 +672,6 @@ class CCALSemanticAnalyser {
                         ctx.parent.parent.getText());
                 }
             }
-            if (ctx.argument_list() != null) { return visit(ctx.argument_list()); }
             return null;
         }
 
@@ -416,7 +690,7 @@ class CCALSemanticAnalyser {
                             error(id, "cannot be used, it is a function", 
                                 ctx.getText()); 
                         }  else if (memory.get(i).get(id).state == State.DECLARED) {
-                            error(id, "cannot be used, it was never assigned a value", 
+                            neverAssignedError(i, id, "cannot be used, it was never assigned a value", 
                                 ctx.getText());
                         }
                         return memory.get(i).get(id);
@@ -441,7 +715,7 @@ class CCALSemanticAnalyser {
                         error(id, "cannot be used, it is a function", 
                             ctx.getText()); 
                     }  else if (memory.get(i).get(id).state == State.DECLARED) {
-                        error(id, "cannot be used, it was never assigned a value", 
+                        neverAssignedError(i, id, "cannot be used, it was never assigned a value", 
                             ctx.getText());
                     }
                     return memory.get(i).get(id);
@@ -484,8 +758,7 @@ class CCALSemanticAnalyser {
 
         @Override
         public Entity visitStmt_block(CCALParser.Stmt_blockContext ctx) {
-            if (ctx.stmt(0) != null) { visit(ctx.stmt(0)); }
-            if (ctx.stmt_block(0) != null) { return visit(ctx.stmt_block(0)); }
+            for (CCALParser.StmtContext stmt : ctx.stmt()) { visit(stmt); }
             return null;
         }
 
@@ -591,11 +864,11 @@ class CCALSemanticAnalyser {
                         if (expr.type == Type.FUNCTION) {
                             Entity stateChanged = new Entity(expr.identifier, 
                                 expr.returnType, expr.arguments, State.USED);
-                            memory.get(0).replace(expr.identifier, stateChanged);
+                            replace(0, expr.identifier, stateChanged);
                         } else {
                             Entity stateChanged = new Entity(expr.identifier, 
                                 expr.type, State.USED);
-                            memory.get(i).replace(expr.identifier, stateChanged);
+                            replace(i, expr.identifier, stateChanged);
                         }
                     }
                 }
@@ -608,7 +881,7 @@ class CCALSemanticAnalyser {
                         error(id, "type do not match", ctx.getText());
                     }
                     Entity stateChanged = new Entity(var.identifier, var.type, State.ASSIGNED);
-                    memory.get(i).replace(id, stateChanged);
+                    replace(i, id, stateChanged);
                     declared = true;
                     break;
                 }
@@ -626,29 +899,17 @@ class CCALSemanticAnalyser {
 
         @Override
         public Entity visitParam_list(CCALParser.Param_listContext ctx) {
-            if (ctx.parameter_list(0) != null) { 
-                return visit(ctx.parameter_list(0)); 
-            }
+            for (CCALParser.ParamContext param : ctx.param()) { visit(param); }
             return null;
         }
 
-        @Override
-        public Entity visitSingleParam(CCALParser.SingleParamContext ctx) {
-            return visit(ctx.param());
-        }
-
-        @Override
-        public Entity visitNotSingleParam(CCALParser.NotSingleParamContext ctx) {
-            visit(ctx.param());
-            return visit(ctx.parameter_list());
-        }
-
         @Override
         public Entity visitParam(CCALParser.ParamContext ctx) {
             String id    = ctx.ID().getText();
             Type   type  = getType(ctx.type());
             Entity param = new Entity(id, type, State.PARAMETER);
             memory.peek().put(id, param);
+            symbols++;
 
             return param;
         }
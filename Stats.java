@@ -0,0 +1,208 @@
+import org.antlr.v4.runtime.tree.*;
+
+import java.lang.management.*;
+import java.util.function.*;
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+/* What a compilation costs, phase by phase, and how big it is, kept
+   with --stats. The wall time, CPU time and bytes allocated of a phase
+   are those of the thread running it, read from the ThreadMXBean; a
+   phase run in parallel adds up those of its tasks, so its wall time
+   may exceed the time it took. Virtual threads are not measured, their
+   CPU time and allocations are null in the report. Stats.none measures
+   and counts nothing. */
+class Stats {
+    static final Stats none = new Stats(null);
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // The phases are measured with these, in this order.
+    static final String[] metrics = { "wallNanos", "cpuNanos", "allocatedBytes" };
+
+    final String file; // Null for Stats.none.
+    private final LinkedHashMap<String, long[]> phases = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+
+    Stats(String file) { this.file = file; }
+
+    boolean enabled() { return file != null; }
+
+    private static long[] now() {
+        return new long[] { System.nanoTime(), threads.getCurrentThreadCpuTime(),
+                            threads.getCurrentThreadAllocatedBytes() };
+    }
+
+    public <T> T measure(String phase, Supplier<T> work) {
+        if (!enabled()) { return work.get(); }
+        long[] total;
+        // Registered first, so that the phases keep the order they start in.
+        synchronized (this) { total = phases.computeIfAbsent(phase, p -> new long[metrics.length]); }
+        long[] start = now();
+        try { return work.get(); }
+        finally {
+            long[] end = now();
+            synchronized (this) {
+                for (int m = 0; m < metrics.length; m++) {
+                    // -1 when the thread cannot be measured.
+                    if (start[m] < 0 || end[m] < 0 || total[m] < 0) { total[m] = -1; }
+                    else { total[m] += end[m] - start[m]; }
+                }
+            }
+        }
+    }
+
+    public void measure(String phase, Runnable work) {
+        measure(phase, () -> { work.run(); return null; });
+    }
+
+    // Only computed if the stats are kept.
+    public synchronized void count(String what, LongSupplier n) {
+        if (enabled()) { counts.merge(what, n.getAsLong(), Long::sum); }
+    }
+
+    static long nodes(ParseTree tree) {
+        if (tree == null) { return 0; }
+        long n = 1;
+        for (int i = 0; i < tree.getChildCount(); i++) { n += nodes(tree.getChild(i)); }
+        return n;
+    }
+
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"file\": " + quote(file) + ",\n  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            json.append(separator).append("    ").append(quote(phase.getKey())).append(": {");
+            for (int m = 0; m < metrics.length; m++) {
+                long value = phase.getValue()[m];
+                json.append(m > 0 ? ", " : "").append(quote(metrics[m])).append(": ")
+                    .append(value >= 0 ? Long.toString(value) : "null");
+            }
+            json.append("}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"counts\": {");
+        separator = "\n";
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            json.append(separator).append("    ").append(quote(count.getKey())).append(": ")
+                .append(count.getValue());
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    // The report is replaced, a failure is only printed.
+    static void write(Path file, String json) {
+        try { Files.write(file, json.getBytes()); }
+        catch (IOException e) { System.err.println("Error when trying to write the stats to " + file + "."); }
+    }
+
+    static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') { quoted.append('\\').append(c); }
+            else if (c < ' ') { quoted.append(String.format("\\u%04x", (int) c)); }
+            else { quoted.append(c); }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /* The values taken by a metric over many compilations. Each bucket
+       holds the values within a quarter of its lower bound, so that the
+       percentiles, given as the lower bound of their bucket, are too. */
+    static class Histogram {
+        private final TreeMap<Long, Long> buckets = new TreeMap<>();
+        private long count, sum, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+
+        // Two bits after the highest one are kept: 8, 10, 12, 14, 16, 20...
+        static long bucket(long value) {
+            if (value < 4) { return Math.max(value, 0); }
+            int shift = 61 - Long.numberOfLeadingZeros(value);
+            return (value >> shift) << shift;
+        }
+
+        void add(long value) {
+            buckets.merge(bucket(value), 1L, Long::sum);
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        long percentile(int p) {
+            long rank = (count * p + 99) / 100, seen = 0;
+            for (Map.Entry<Long, Long> bucket : buckets.entrySet()) {
+                seen += bucket.getValue();
+                if (seen >= rank) { return Math.max(bucket.getKey(), min); }
+            }
+            return max;
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("{\"count\": " + count + ", \"min\": " + min +
+                ", \"max\": " + max + ", \"mean\": " + sum / count + ", \"p50\": " + percentile(50) +
+                ", \"p90\": " + percentile(90) + ", \"p99\": " + percentile(99) + ", \"buckets\": {");
+            String separator = "";
+            for (Map.Entry<Long, Long> bucket : buckets.entrySet()) {
+                json.append(separator).append(quote(bucket.getKey().toString())).append(": ")
+                    .append(bucket.getValue());
+                separator = ", ";
+            }
+            return json.append("}}").toString();
+        }
+    }
+
+    /* The stats of many compilations, in batch, server or watch mode, as
+       a histogram for each metric of each phase and for each count. */
+    static class Aggregate {
+        private final LinkedHashMap<String, LinkedHashMap<String, Histogram>> phases = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Histogram> counts = new LinkedHashMap<>();
+        private long compilations;
+
+        public void add(Stats stats) {
+            if (!stats.enabled()) { return; }
+            // Both locks are always taken in this order.
+            synchronized (this) {
+                synchronized (stats) {
+                    compilations++;
+                    for (Map.Entry<String, long[]> phase : stats.phases.entrySet()) {
+                        LinkedHashMap<String, Histogram> histograms =
+                            phases.computeIfAbsent(phase.getKey(), p -> new LinkedHashMap<>());
+                        for (int m = 0; m < metrics.length; m++) {
+                            long value = phase.getValue()[m];
+                            if (value >= 0) { histograms.computeIfAbsent(metrics[m], h -> new Histogram()).add(value); }
+                        }
+                    }
+                    for (Map.Entry<String, Long> count : stats.counts.entrySet()) {
+                        counts.computeIfAbsent(count.getKey(), c -> new Histogram()).add(count.getValue());
+                    }
+                }
+            }
+        }
+
+        public synchronized String toJson() {
+            StringBuilder json = new StringBuilder("{\n  \"compilations\": " + compilations + ",\n  \"phases\": {");
+            String separator = "\n";
+            for (Map.Entry<String, LinkedHashMap<String, Histogram>> phase : phases.entrySet()) {
+                json.append(separator).append("    ").append(quote(phase.getKey())).append(": {");
+                String inner = "\n";
+                for (Map.Entry<String, Histogram> metric : phase.getValue().entrySet()) {
+                    json.append(inner).append("      ").append(quote(metric.getKey())).append(": ")
+                        .append(metric.getValue().toJson());
+                    inner = ",\n";
+                }
+                json.append("\n    }");
+                separator = ",\n";
+            }
+            json.append("\n  },\n  \"counts\": {");
+            separator = "\n";
+            for (Map.Entry<String, Histogram> count : counts.entrySet()) {
+                json.append(separator).append("    ").append(quote(count.getKey())).append(": ")
+                    .append(count.getValue().toJson());
+                separator = ",\n";
+            }
+            return json.append("\n  }\n}\n").toString();
+        }
+    }
+}
@@ -1,26 +1,35 @@
 import org.antlr.v4.runtime.tree.*;
+import org.antlr.v4.runtime.misc.*;
 import org.antlr.v4.runtime.dfa.*;
 import org.antlr.v4.runtime.atn.*;
 import org.antlr.v4.runtime.*;
 
+import java.util.function.Function;
 import java.util.*;
 import java.io.*;
 
 class SyntaxAnalyser {
     final private String filePath;
+    private CharStream source;
+    final private ArrayList<String> errors = new ArrayList<>();
     private boolean parsingSuccessful = true;
 
     public SyntaxAnalyser(final String filePath) { 
         this.filePath = filePath; 
     }
 
+    // Parse a source which is already in memory, named filePath.
+    public SyntaxAnalyser(final String filePath, final String source) { 
+        this.filePath = filePath; 
+        this.source   = CharStreams.fromString(source, filePath);
+    }
+
     public static void failWith(final String errorMsg) {
-        System.err.println(errorMsg);
-        System.exit(1);
+        throw new CompilationException(errorMsg);
     }
 
-    /* This error listener only tells us if the file was 
-       successfully parsed or not, nothing else. */
+    /* This error listener tells us if the file was successfully
+       parsed or not, and keeps the errors to report them. */
     final private ANTLRErrorListener customErrorListener = new ANTLRErrorListener() {
         @Override
         public void reportAmbiguity(Parser p, org.antlr.v4.runtime.dfa.DFA d, int a, int b, boolean c, BitSet e, ATNConfigSet f) {}
@@ -29,16 +38,19 @@ class SyntaxAnalyser {
         @Override
         public void reportContextSensitivity(Parser p, DFA d, int a, int b, int c, ATNConfigSet e) {}
         @Override
-        public void syntaxError(Recognizer<?, ?> r, Object o, int a, int b, String c, RecognitionException re) {
+        public void syntaxError(Recognizer<?, ?> r, Object o, int line, int col, String msg, RecognitionException re) {
+            errors.add("line " + line + ":" + col + " " + msg);
             parsingSuccessful = false;
         }
     };
 
-    public ParseTree parse() {
-        CharStream stream = null;
-        try { stream = CharStreams.fromFileName(filePath); } 
-        catch (IOException e) {
-            failWith("error when trying to open " + filePath);
+    private CommonTokenStream lex() {
+        CharStream stream = source;
+        if (stream == null) {
+            try { stream = CharStreams.fromFileName(filePath); } 
+            catch (IOException e) {
+                failWith("error when trying to open " + filePath);
+            }
         }
 
         final CCALLexer lexer = new CCALLexer(stream);
@@ -46,19 +58,83 @@ class SyntaxAnalyser {
         lexer.removeErrorListeners();
         lexer.addErrorListener(customErrorListener);
 
-        final CommonTokenStream tokens = new CommonTokenStream(lexer);
+        return new CommonTokenStream(lexer);
+    }
+
+    // All the tokens, EOF included, or null if some could not be read.
+    public List<Token> tokens() {
+        CommonTokenStream tokens = lex();
+        tokens.fill();
+        return parsingSuccessful ? tokens.getTokens() : null;
+    }
+
+    /* Parse some tokens with a rule of the grammar, as parse() does but
+       without reporting errors: null if they are not what the rule
+       accepts, up to the last one. */
+    public static <T extends ParserRuleContext> T parse(List<Token> part, Function<CCALParser, T> rule) {
+        final CommonTokenStream tokens = new CommonTokenStream(new ListTokenSource(part));
         final CCALParser        parser = new CCALParser(tokens);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
 
+        for (PredictionMode mode : new PredictionMode[] { PredictionMode.SLL, PredictionMode.LL }) {
+            tokens.seek(0);
+            parser.reset();
+            parser.getInterpreter().setPredictionMode(mode);
+            try {
+                T tree = rule.apply(parser);
+                if (tokens.LA(1) == Token.EOF) { return tree; }
+            } catch (ParseCancellationException e) { }
+        }
+        return null;
+    }
+
+    public ParseTree parse() { return parse(Stats.none); }
+
+    // The tokens are all read first, so that lexing is measured on its own.
+    public ParseTree parse(Stats stats) {
+        final CommonTokenStream tokens = stats.measure("lexing", () -> {
+            CommonTokenStream stream = lex();
+            stream.fill();
+            return stream;
+        });
+        stats.count("tokens", () -> tokens.size() - 1);
+        ParseTree tree = stats.measure("parsing", () -> parse(tokens));
+        stats.count("parse tree nodes", () -> Stats.nodes(tree));
+        return tree;
+    }
+
+    private ParseTree parse(final CommonTokenStream tokens) {
+        final CCALParser        parser = new CCALParser(tokens);
+
+        /* Most inputs are valid, so we first try the faster SLL
+           prediction, bailing out at the first error. */
         parser.removeErrorListeners();
-        parser.addErrorListener(customErrorListener);
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
 
-        return parser.program();
+        try { return parser.program(); }
+        catch (ParseCancellationException e) {
+            /* Either the input is invalid, or SLL was not powerful
+               enough: parse again with full LL and report errors. */
+            tokens.seek(0);
+            parser.reset();
+            parser.addErrorListener(customErrorListener);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.program();
+        }
     }
 
     public boolean parsingSuccessful() { return parsingSuccessful; }
 
-    public void outputResult() {
-        System.out.println(filePath + (parsingSuccessful ? 
+    public ArrayList<String> getErrors() { return errors; }
+
+    public void outputResult() { outputResult(System.out); }
+
+    public void outputResult(PrintStream out) {
+        out.println(filePath + (parsingSuccessful ? 
             " parsed successfully" : " has not parsed"));
+        for (String error : errors) { out.println(" - " + error); }
     }
 }
\ No newline at end of file
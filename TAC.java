@@ -0,0 +1,240 @@
+import java.util.*;
+
+/* In-memory three-address code, as produced by IRCodeGenerator.
+   A program is a list of functions, main being the last one, each
+   holding its instructions in an array. Labels are numbered within
+   their function, which keeps a table of their names. */
+public class TAC {
+    public enum Opcode {
+        LABEL,    // L:
+        COPY,     // x = a
+        UNARY,    // x = op a
+        BINARY,   // x = a op b
+        PARAM,    // param a
+        CALL,     // x = call f, n   or   call f, n
+        GETPARAM, // x = getparam n
+        IFZ,      // ifz a op b goto L   or   ifz a goto L
+        GOTO,     // goto L
+        RETURN    // return a   or   return
+    }
+
+    public enum Operator {
+        PLUS("+"), MINUS("-"), AND("&&"), OR("||"), NOT("!"),
+        EQUAL("=="), DIFFERENT("!="),
+        GREATER(">"), GREATEREQ(">="), LESS("<"), LESSEQ("<=");
+
+        public final String symbol;
+
+        Operator(String symbol) { this.symbol = symbol; }
+
+        public static Operator of(String symbol) {
+            for (Operator op : values()) {
+                if (op.symbol.equals(symbol)) { return op; }
+            }
+            throw new IllegalArgumentException("unknown operator " + symbol);
+        }
+    }
+
+    /* The operands are variable names or literals, the value is the label
+       of a LABEL, GOTO or IFZ, the number of arguments of a CALL or the
+       index of a GETPARAM. */
+    public static class Instruction {
+        public Opcode   opcode;
+        public Operator operator;
+        public String   result, left, right;
+        public int      value;
+
+        Instruction(Opcode opcode, String result, String left,
+                    Operator operator, String right, int value) {
+            this.opcode   = opcode;
+            this.result   = result;
+            this.left     = left;
+            this.operator = operator;
+            this.right    = right;
+            this.value    = value;
+        }
+
+        static Instruction label(int label) {
+            return new Instruction(Opcode.LABEL, null, null, null, null, label);
+        }
+
+        static Instruction copy(String result, String a) {
+            return new Instruction(Opcode.COPY, result, a, null, null, 0);
+        }
+
+        static Instruction unary(String result, Operator op, String a) {
+            return new Instruction(Opcode.UNARY, result, a, op, null, 0);
+        }
+
+        static Instruction binary(String result, String a, Operator op, String b) {
+            return new Instruction(Opcode.BINARY, result, a, op, b, 0);
+        }
+
+        static Instruction param(String a) {
+            return new Instruction(Opcode.PARAM, null, a, null, null, 0);
+        }
+
+        static Instruction call(String result, String function, int n) {
+            return new Instruction(Opcode.CALL, result, function, null, null, n);
+        }
+
+        static Instruction getparam(String result, int n) {
+            return new Instruction(Opcode.GETPARAM, result, null, null, null, n);
+        }
+
+        static Instruction ifz(String a, Operator op, String b, int label) {
+            return new Instruction(Opcode.IFZ, null, a, op, b, label);
+        }
+
+        static Instruction jump(int label) {
+            return new Instruction(Opcode.GOTO, null, null, null, null, label);
+        }
+
+        static Instruction ret(String a) {
+            return new Instruction(Opcode.RETURN, null, a, null, null, 0);
+        }
+    }
+
+    public static class Function {
+        public final String name;
+        private Instruction[] code;
+        private int size;
+        private final ArrayList<String> labels;
+        public final LinkedHashSet<String> temporaries;
+        public int params; // As declared, the getparams of unused ones may be removed.
+
+        Function(String name) {
+            this.name = name;
+            code   = new Instruction[16];
+            size   = 0;
+            labels = new ArrayList<>();
+            temporaries = new LinkedHashSet<>();
+        }
+
+        public int size()                { return size;    }
+        public Instruction get(int i)    { return code[i]; }
+
+        // Passes replace instructions, or set them to null to remove them.
+        public void set(int i, Instruction instruction) { code[i] = instruction; }
+
+        // Replace the whole code, for passes which insert instructions.
+        public void setCode(List<Instruction> instructions) {
+            code = instructions.toArray(new Instruction[Math.max(16, instructions.size())]);
+            size = instructions.size();
+        }
+
+        // Drop the removed instructions, returning how many there were.
+        public int compact() {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (code[i] != null) { code[n++] = code[i]; }
+            }
+            int removed = size - n;
+            Arrays.fill(code, n, size, null);
+            size = n;
+            return removed;
+        }
+
+        public void add(Instruction instruction) {
+            if (size == code.length) { code = Arrays.copyOf(code, size * 2); }
+            code[size++] = instruction;
+        }
+
+        // Add a label to the table, returning its number.
+        public int newLabel(String name) {
+            labels.add(name);
+            return labels.size() - 1;
+        }
+
+        // Temporaries are numbered in their function, from 1.
+        public String newTemporary() {
+            String temporary = Names.temporary(name, temporaries.size() + 1);
+            temporaries.add(temporary);
+            return temporary;
+        }
+
+        public int labels()                { return labels.size();     }
+        public String labelName(int label) { return labels.get(label); }
+    }
+
+    public final ArrayList<Function> functions;
+    public final LinkedHashSet<String> globals; // The global variables and constants.
+
+    TAC() {
+        functions = new ArrayList<>();
+        globals   = new LinkedHashSet<>();
+    }
+
+    // Integers and booleans, the other atoms are variables.
+    public static boolean isLiteral(String atom) {
+        char c = atom.charAt(0);
+        return Character.isDigit(c) || c == '-' || atom.equals("true") || atom.equals("false");
+    }
+
+    /* The functions of the interpreter, and the intrinsics of IdiomRecognizer.
+       User functions may start with an underscore too, but they are
+       then named u__..., see Names, so they never have these names. */
+    static final Set<String> builtins = new HashSet<>(Arrays.asList(
+        "_print", "_println", "_read", "_exit", "_mult", "_trips"));
+
+    public static boolean isBuiltin(String function) { return builtins.contains(function); }
+
+    public int size() {
+        int n = 0;
+        for (Function f : functions) { n += f.size(); }
+        return n;
+    }
+
+    /* The variables which hold booleans, and the functions which return
+       them, flagged by their name, which is not a variable. A variable
+       always holds values of the same type, and so does a parameter: it
+       is a boolean if a call passes one, getparam n reading the n-th
+       param from the last before the call. */
+    public HashSet<String> booleans() {
+        HashSet<String> bools = new HashSet<>();
+        HashMap<String, BitSet> parameters = new HashMap<>(); // The getparams of booleans.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Function function : functions) {
+                ArrayList<String> pushed = new ArrayList<>();
+                for (int i = 0; i < function.size(); i++) {
+                    Instruction ins = function.get(i);
+                    if (ins.opcode == Opcode.PARAM) { pushed.add(ins.left); }
+                    if (ins.opcode == Opcode.CALL) {
+                        int n = Math.min(ins.value, pushed.size());
+                        for (int p = 1; p <= n; p++) {
+                            if (isBuiltin(ins.left) || !isBoolean(pushed.get(pushed.size() - p), bools)) { continue; }
+                            BitSet bits = parameters.computeIfAbsent(ins.left, f -> new BitSet());
+                            if (!bits.get(p)) {
+                                bits.set(p);
+                                changed = true;
+                            }
+                        }
+                        pushed.subList(pushed.size() - n, pushed.size()).clear();
+                    }
+                    if (ins.opcode == Opcode.RETURN && ins.left != null &&
+                        isBoolean(ins.left, bools) && bools.add(function.name)) { changed = true; }
+                    if (ins.result == null || bools.contains(ins.result)) { continue; }
+                    boolean bool = false;
+                    if (ins.opcode == Opcode.COPY) { bool = isBoolean(ins.left, bools); }
+                    if (ins.opcode == Opcode.CALL) { bool = bools.contains(ins.left); }
+                    if (ins.opcode == Opcode.GETPARAM) {
+                        BitSet bits = parameters.get(function.name);
+                        bool = bits != null && bits.get(ins.value);
+                    }
+                    if (ins.opcode == Opcode.UNARY) { bool = true; }
+                    if (ins.opcode == Opcode.BINARY) {
+                        bool = ins.operator != Operator.PLUS && ins.operator != Operator.MINUS;
+                    }
+                    if (bool) { bools.add(ins.result); changed = true; }
+                }
+            }
+        }
+        return bools;
+    }
+
+    public static boolean isBoolean(String atom, Set<String> bools) {
+        return atom.equals("true") || atom.equals("false") || bools.contains(atom);
+    }
+}
@@ -0,0 +1,97 @@
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.*;
+
+import java.io.*;
+
+/* Writes TAC as text, in the format read by the interpreter. The text
+   is encoded into a fixed size buffer which is flushed to the channel
+   whenever it is full, so the whole output is never held in memory. */
+public class TACEmitter {
+    private static final int bufferSize = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    TACEmitter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    public static void write(TAC tac, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            new TACEmitter(channel).emit(tac);
+        }
+    }
+
+    public void emit(TAC tac) throws IOException {
+        for (TAC.Function function : tac.functions) {
+            put("\n"); put(function.name); put(":\n");
+            for (int i = 0; i < function.size(); i++) {
+                emit(function, function.get(i));
+                put("\n");
+            }
+        }
+        flush();
+    }
+
+    private void emit(TAC.Function function, TAC.Instruction ins) throws IOException {
+        switch (ins.opcode) {
+            case LABEL:
+                put(function.labelName(ins.value)); put(":");
+                break;
+            case COPY:
+                put(ins.result); put(" = "); put(ins.left);
+                break;
+            case UNARY:
+                put(ins.result); put(" = "); put(ins.operator.symbol); put(ins.left);
+                break;
+            case BINARY:
+                put(ins.result); put(" = "); put(ins.left);
+                put(" "); put(ins.operator.symbol); put(" "); put(ins.right);
+                break;
+            case PARAM:
+                put("param "); put(ins.left);
+                break;
+            case CALL:
+                if (ins.result != null) { put(ins.result); put(" = "); }
+                put("call "); put(ins.left); put(", "); put(Integer.toString(ins.value));
+                break;
+            case GETPARAM:
+                put(ins.result); put(" = getparam "); put(Integer.toString(ins.value));
+                break;
+            case IFZ:
+                put("ifz "); put(ins.left);
+                if (ins.operator != null) {
+                    put(" "); put(ins.operator.symbol); put(" "); put(ins.right);
+                }
+                put(" goto "); put(function.labelName(ins.value));
+                break;
+            case GOTO:
+                put("goto "); put(function.labelName(ins.value));
+                break;
+            case RETURN:
+                put("return");
+                if (ins.left != null) { put(" "); put(ins.left); }
+                break;
+        }
+    }
+
+    // Identifiers and literals are plain ASCII.
+    private void put(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (!buffer.hasRemaining()) { drain(); }
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) { channel.write(buffer); }
+        buffer.clear();
+    }
+
+    public void flush() throws IOException { drain(); }
+}
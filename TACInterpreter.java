@@ -0,0 +1,345 @@
+import java.util.*;
+import java.io.*;
+
+/* Executes TAC in-process, with the semantics of TACi: all variables
+   are global, parameters are pushed with param and read back with
+   getparam, getparam 1 being the last one pushed.
+
+   The program is first translated to flat integer arrays: labels are
+   resolved to instruction indices and disappear, function names to
+   their entry, and variables and literals to slots of a single value
+   table, so the dispatch loop never looks a name up. Booleans are
+   stored as 0 or 1, and flagged so they can be printed as such. */
+class TACInterpreter {
+    private static final int COPY = 0, UNARY = 1, BINARY = 2, PARAM = 3, CALL = 4,
+        BUILTIN = 5, GETPARAM = 6, IFZ = 7, GOTO = 8, RETURN = 9;
+
+    private static final int ADD = 0, SUB = 1, AND = 2, OR = 3, EQ = 4, NE = 5,
+        GT = 6, GE = 7, LT = 8, LE = 9, NOT = 10;
+
+    private static final int PRINT = 0, PRINTLN = 1, READ = 2, EXIT = 3, MULT = 4, TRIPS = 5;
+
+    private static final int maxDepth = 1 << 20;
+
+    // One entry per instruction, sub is the operator or the builtin.
+    private int[] code, sub, dst, left, right;
+    private int size;
+
+    private int[] values;
+    private boolean[] bools;
+    private final HashMap<String, Integer> slots;
+
+    private final int entry;
+    private long executed;
+
+    private final PrintStream out;
+    private final BufferedReader in;
+
+    TACInterpreter(TAC tac) { this(tac, System.out, System.in); }
+
+    TACInterpreter(TAC tac, PrintStream out, InputStream in) {
+        this.out = out;
+        this.in  = new BufferedReader(new InputStreamReader(in));
+        slots    = new HashMap<>();
+        values   = new int[64];
+        bools    = new boolean[64];
+        int n    = tac.size() + 1;
+        code     = new int[n]; sub  = new int[n]; dst = new int[n];
+        left     = new int[n]; right = new int[n];
+        entry    = translate(tac);
+    }
+
+    public long executed() { return executed; }
+
+    public int slots() { return slots.size(); }
+
+    /* Translate every function, returning the entry of main. Calls are
+       resolved once all the functions have been placed. */
+    private int translate(TAC tac) {
+        HashMap<String, Integer> entries = new HashMap<>();
+        ArrayList<Integer> calls = new ArrayList<>();
+        ArrayList<String> callees = new ArrayList<>();
+
+        for (TAC.Function function : tac.functions) {
+            entries.put(function.name, size);
+            int[] labels = new int[function.labels()];
+            ArrayList<Integer> jumps = new ArrayList<>();
+
+            for (int i = 0; i < function.size(); i++) {
+                TAC.Instruction ins = function.get(i);
+                int at = size;
+                switch (ins.opcode) {
+                    case LABEL:
+                        labels[ins.value] = size;
+                        continue;
+                    case COPY:
+                        add(COPY, 0, slot(ins.result), slot(ins.left), 0);
+                        break;
+                    case UNARY:
+                        add(UNARY, operator(ins.operator), slot(ins.result), slot(ins.left), 0);
+                        break;
+                    case BINARY:
+                        add(BINARY, operator(ins.operator), slot(ins.result),
+                            slot(ins.left), slot(ins.right));
+                        break;
+                    case PARAM:
+                        add(PARAM, 0, 0, slot(ins.left), 0);
+                        break;
+                    case CALL:
+                        int result = ins.result != null ? slot(ins.result) : -1;
+                        int builtin = builtin(ins.left);
+                        if (builtin >= 0) { add(BUILTIN, builtin, result, 0, ins.value); }
+                        else {
+                            add(CALL, 0, result, 0, ins.value);
+                            calls.add(at);
+                            callees.add(ins.left);
+                        }
+                        break;
+                    case GETPARAM:
+                        add(GETPARAM, 0, slot(ins.result), 0, ins.value);
+                        break;
+                    case IFZ:
+                        if (ins.operator == null) { add(IFZ, -1, ins.value, slot(ins.left), 0); }
+                        else {
+                            add(IFZ, operator(ins.operator), ins.value,
+                                slot(ins.left), slot(ins.right));
+                        }
+                        jumps.add(at);
+                        break;
+                    case GOTO:
+                        add(GOTO, 0, ins.value, 0, 0);
+                        jumps.add(at);
+                        break;
+                    case RETURN:
+                        add(RETURN, 0, 0, ins.left != null ? slot(ins.left) : -1, 0);
+                        break;
+                }
+            }
+            // Jumps hold label numbers until now.
+            for (int at : jumps) { dst[at] = labels[dst[at]]; }
+        }
+
+        for (int i = 0; i < calls.size(); i++) {
+            Integer target = entries.get(callees.get(i));
+            if (target == null) {
+                throw new IllegalStateException(callees.get(i) + " not defined!");
+            }
+            sub[calls.get(i)] = target;
+        }
+
+        Integer main = entries.get("main");
+        if (main == null) { throw new IllegalStateException("main not defined!"); }
+        return main;
+    }
+
+    private void add(int op, int s, int d, int l, int r) {
+        code[size] = op; sub[size] = s; dst[size] = d; left[size] = l; right[size] = r;
+        size++;
+    }
+
+    private static int operator(TAC.Operator op) {
+        switch (op) {
+            case PLUS:      return ADD;
+            case MINUS:     return SUB;
+            case AND:       return AND;
+            case OR:        return OR;
+            case EQUAL:     return EQ;
+            case DIFFERENT: return NE;
+            case GREATER:   return GT;
+            case GREATEREQ: return GE;
+            case LESS:      return LT;
+            case LESSEQ:    return LE;
+            default:        return NOT;
+        }
+    }
+
+    private static int builtin(String name) {
+        switch (name) {
+            case "_print":   return PRINT;
+            case "_println": return PRINTLN;
+            case "_read":    return READ;
+            case "_exit":    return EXIT;
+            case "_mult":    return MULT;
+            case "_trips":   return TRIPS;
+            default:         return -1;
+        }
+    }
+
+    // The slot of a variable, or of a literal, which is initialized.
+    private int slot(String name) {
+        Integer s = slots.get(name);
+        if (s != null) { return s; }
+
+        int n = slots.size();
+        if (n == values.length) {
+            values = Arrays.copyOf(values, n * 2);
+            bools  = Arrays.copyOf(bools, n * 2);
+        }
+        slots.put(name, n);
+
+        char c = name.charAt(0);
+        if (Character.isDigit(c) || c == '-') { values[n] = Integer.parseInt(name); }
+        else if (name.equals("true"))  { values[n] = 1; bools[n] = true; }
+        else if (name.equals("false")) { values[n] = 0; bools[n] = true; }
+        return n;
+    }
+
+    public void run() throws IOException {
+        final int[] code = this.code, sub = this.sub, dst = this.dst;
+        final int[] left = this.left, right = this.right;
+        final int[] values = this.values;
+        final boolean[] bools = this.bools;
+
+        int[] params = new int[64];
+        boolean[] paramBools = new boolean[64];
+        int sp = 0;
+
+        // Return address, result slot, parameters of each call.
+        int[] returns = new int[64], results = new int[64];
+        int[] bases = new int[64], counts = new int[64];
+        int depth = 0;
+
+        long executed = 0;
+        int pc = entry;
+
+        loop:
+        while (true) {
+            executed++;
+            switch (code[pc]) {
+                case COPY:
+                    values[dst[pc]] = values[left[pc]];
+                    bools[dst[pc]]  = bools[left[pc]];
+                    pc++;
+                    break;
+                case UNARY: // Only NOT.
+                    values[dst[pc]] = values[left[pc]] == 0 ? 1 : 0;
+                    bools[dst[pc]]  = true;
+                    pc++;
+                    break;
+                case BINARY:
+                    int op = sub[pc];
+                    values[dst[pc]] = apply(op, values[left[pc]], values[right[pc]]);
+                    bools[dst[pc]]  = op != ADD && op != SUB;
+                    pc++;
+                    break;
+                case PARAM:
+                    if (sp == params.length) {
+                        params = Arrays.copyOf(params, sp * 2);
+                        paramBools = Arrays.copyOf(paramBools, sp * 2);
+                    }
+                    params[sp]     = values[left[pc]];
+                    paramBools[sp] = bools[left[pc]];
+                    sp++;
+                    pc++;
+                    break;
+                case CALL:
+                    if (depth == returns.length) {
+                        if (depth == maxDepth) {
+                            throw new IllegalStateException("call stack overflow");
+                        }
+                        returns = Arrays.copyOf(returns, depth * 2);
+                        results = Arrays.copyOf(results, depth * 2);
+                        bases   = Arrays.copyOf(bases, depth * 2);
+                        counts  = Arrays.copyOf(counts, depth * 2);
+                    }
+                    returns[depth] = pc + 1;
+                    results[depth] = dst[pc];
+                    bases[depth]   = sp - right[pc];
+                    counts[depth]  = right[pc];
+                    depth++;
+                    pc = sub[pc];
+                    break;
+                case BUILTIN:
+                    int n = right[pc];
+                    switch (sub[pc]) {
+                        case PRINT:
+                        case PRINTLN:
+                            for (int i = sp - n; i < sp; i++) {
+                                out.print(paramBools[i] ?
+                                    (params[i] != 0 ? "true" : "false") :
+                                    Integer.toString(params[i]));
+                            }
+                            if (sub[pc] == PRINTLN) { out.println(); }
+                            break;
+                        case READ:
+                            if (dst[pc] >= 0) {
+                                values[dst[pc]] = Integer.parseInt(in.readLine().trim());
+                                bools[dst[pc]]  = false;
+                            }
+                            break;
+                        case EXIT:
+                            break loop;
+                        case MULT:
+                        case TRIPS:
+                            if (dst[pc] >= 0) {
+                                values[dst[pc]] = sub[pc] == MULT ?
+                                    params[sp - 2] * params[sp - 1] :
+                                    trips(params[sp - 4], params[sp - 3], params[sp - 2], params[sp - 1]);
+                                bools[dst[pc]] = false;
+                            }
+                            break;
+                    }
+                    sp -= n;
+                    pc++;
+                    break;
+                case GETPARAM:
+                    int i = bases[depth - 1] + counts[depth - 1] - right[pc];
+                    values[dst[pc]] = params[i];
+                    bools[dst[pc]]  = paramBools[i];
+                    pc++;
+                    break;
+                case IFZ:
+                    int cond = sub[pc] < 0 ? values[left[pc]] :
+                        apply(sub[pc], values[left[pc]], values[right[pc]]);
+                    pc = cond == 0 ? dst[pc] : pc + 1;
+                    break;
+                case GOTO:
+                    pc = dst[pc];
+                    break;
+                case RETURN:
+                    if (depth == 0) { break loop; }
+                    depth--;
+                    if (results[depth] >= 0 && left[pc] >= 0) {
+                        values[results[depth]] = values[left[pc]];
+                        bools[results[depth]]  = bools[left[pc]];
+                    }
+                    sp = bases[depth];
+                    pc = returns[depth];
+                    break;
+            }
+        }
+
+        this.executed = executed;
+        out.flush();
+    }
+
+    /* _trips, for IdiomRecognizer: the number of times n a loop runs
+       while a > b, or a >= b if inclusive is 1, the difference shrinking
+       by step each time. -1 if step is not positive, or if a - n * step
+       or b + n * step does not fit an int. */
+    static int trips(int a, int b, int step, int inclusive) {
+        long gap = (long) a - b + inclusive;
+        if (gap <= 0) { return 0; }
+        if (step <= 0) { return -1; }
+        long n = (gap + step - 1) / step;
+        if (n != (int) n) { return -1; }
+        long a1 = a - n * step, b1 = b + n * step;
+        return a1 == (int) a1 && b1 == (int) b1 ? (int) n : -1;
+    }
+
+    private static int apply(int op, int a, int b) {
+        switch (op) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case AND: return (a != 0 && b != 0) ? 1 : 0;
+            case OR:  return (a != 0 || b != 0) ? 1 : 0;
+            case EQ:  return a == b ? 1 : 0;
+            case NE:  return a != b ? 1 : 0;
+            case GT:  return a >  b ? 1 : 0;
+            case GE:  return a >= b ? 1 : 0;
+            case LT:  return a <  b ? 1 : 0;
+            case LE:  return a <= b ? 1 : 0;
+            default:  return 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.*;
+
+/* Gives the temporaries of each function as few names as possible, by
+   linear scan: a temporary lives from its first to its last position in
+   the code where it is written, read or live, and temporaries whose
+   intervals do not overlap share a name.
+
+   In a function which may call itself, the inner call writes the same
+   names, so a temporary live across a call keeps a name of its own.
+   Booleans and integers never share a name, the JVM backend types names. */
+class TemporaryAllocator {
+    private final TAC tac;
+    int before, after, maxLive; // Over all the functions.
+
+    TemporaryAllocator(TAC tac) { this.tac = tac; }
+
+    public void allocate() {
+        CallGraph calls = new CallGraph(tac);
+        HashSet<String> bools = tac.booleans();
+        for (TAC.Function function : tac.functions) {
+            before += function.temporaries.size();
+            if (!function.temporaries.isEmpty()) {
+                allocate(function, calls.isRecursive(function.name), bools);
+            }
+            after += function.temporaries.size();
+        }
+    }
+
+    private void allocate(TAC.Function function, boolean recursive, HashSet<String> bools) {
+        ArrayList<String> temporaries = new ArrayList<>(function.temporaries);
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (String temporary : temporaries) { ids.put(temporary, ids.size()); }
+
+        int n = temporaries.size();
+        int[] start = new int[n], end = new int[n];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+        boolean[] acrossCall = new boolean[n];
+
+        List<String> none = Collections.emptyList();
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        Liveness liveness = new Liveness(cfg, none, none);
+        HashMap<Integer, Integer> temporaryOf = new HashMap<>(); // By liveness id.
+        for (int t = 0; t < n; t++) { temporaryOf.put(liveness.id(temporaries.get(t)), t); }
+
+        for (ControlFlowGraph.Block block : cfg.blocks) {
+            BitSet live = (BitSet) liveness.liveOut[block.index].clone();
+            for (int i = block.end - 1; i >= block.start; i--) {
+                TAC.Instruction ins = function.get(i);
+                boolean call = ins.opcode == TAC.Opcode.CALL && !TAC.isBuiltin(ins.left);
+                for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                    Integer t = temporaryOf.get(v);
+                    if (t == null) { continue; }
+                    extend(start, end, t, i);
+                    if (call && !temporaries.get(t).equals(ins.result)) { acrossCall[t] = true; }
+                }
+                if (ins.result != null && ids.containsKey(ins.result)) {
+                    extend(start, end, ids.get(ins.result), i);
+                }
+                liveness.transfer(ins, live);
+                for (String use : Liveness.uses(ins)) {
+                    if (ids.containsKey(use)) { extend(start, end, ids.get(use), i); }
+                }
+            }
+        }
+
+        // Those no longer in the code are left out, those which must keep
+        // a name of their own live everywhere.
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int t = 0; t < n; t++) {
+            if (end[t] < 0) { continue; }
+            order.add(t);
+            if (recursive && acrossCall[t]) {
+                start[t] = 0;
+                end[t]   = Integer.MAX_VALUE;
+            }
+        }
+        order.sort((a, b) -> start[a] != start[b] ?
+            Integer.compare(start[a], start[b]) : Integer.compare(a, b));
+
+        // Names are numbers until the end, the lowest free one is taken,
+        // among those of booleans for a boolean.
+        int[] name = new int[n];
+        PriorityQueue<Integer> active = new PriorityQueue<>((a, b) -> Integer.compare(end[a], end[b]));
+        ArrayList<TreeSet<Integer>> free = new ArrayList<>();
+        free.add(new TreeSet<>());
+        free.add(new TreeSet<>());
+        int[] kind = new int[n];
+        for (int t = 0; t < n; t++) { kind[t] = bools.contains(temporaries.get(t)) ? 1 : 0; }
+        int names = 0;
+        for (int t : order) {
+            while (!active.isEmpty() && end[active.peek()] < start[t]) {
+                int expired = active.poll();
+                free.get(kind[expired]).add(name[expired]);
+            }
+            TreeSet<Integer> same = free.get(kind[t]);
+            name[t] = same.isEmpty() ? names++ : same.pollFirst();
+            active.add(t);
+            maxLive = Math.max(maxLive, active.size());
+        }
+
+        function.temporaries.clear();
+        String[] renamed = new String[names];
+        for (int k = 0; k < names; k++) { renamed[k] = function.newTemporary(); }
+        HashMap<String, String> rename = new HashMap<>();
+        for (int t : order) { rename.put(temporaries.get(t), renamed[name[t]]); }
+
+        for (int i = 0; i < function.size(); i++) {
+            TAC.Instruction ins = function.get(i);
+            if (ins.result != null) { ins.result = rename.getOrDefault(ins.result, ins.result); }
+            if (ins.opcode != TAC.Opcode.CALL && ins.left != null) {
+                ins.left = rename.getOrDefault(ins.left, ins.left);
+            }
+            if (ins.right != null) { ins.right = rename.getOrDefault(ins.right, ins.right); }
+        }
+    }
+
+    private static void extend(int[] start, int[] end, int t, int i) {
+        start[t] = Math.min(start[t], i);
+        end[t]   = Math.max(end[t], i);
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.*;
+
+/* Global value numbering, over the SSA form of each function. Going down
+   the dominator tree, an operation on the same values as one which
+   dominates it is removed and its result replaced by the earlier one,
+   and so is a copy by what it copies. Versions are written once, so
+   what dominates still holds the value.
+
+   A global may be written by any call, each read of one is a value of
+   its own, and what is written to one is kept. */
+class ValueNumberer {
+    private final TAC tac;
+
+    ValueNumberer(TAC tac) { this.tac = tac; }
+
+    // Returns the number of instructions removed.
+    public int number() {
+        int before = tac.size();
+        CallGraph calls = new CallGraph(tac);
+        for (TAC.Function function : tac.functions) {
+            if (!SSAForm.canConvert(function, calls)) { continue; }
+            SSAForm ssa = new SSAForm(function, tac.globals);
+            number(ssa);
+            ssa.leave();
+        }
+        return before - tac.size();
+    }
+
+    private void number(SSAForm ssa) {
+        HashMap<String, String> values = new HashMap<>();      // Of versions replaced.
+        HashMap<String, String> expressions = new HashMap<>(); // Computed in a dominator.
+        ArrayList<ArrayList<String>> computed = new ArrayList<>();
+        for (int i = 0; i < ssa.cfg.blocks.size(); i++) { computed.add(new ArrayList<>()); }
+
+        // A block to enter, or ~block to leave.
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        if (ssa.cfg.entry() != null) { work.push(0); }
+        while (!work.isEmpty()) {
+            int b = work.pop();
+            if (b < 0) {
+                for (String expression : computed.get(~b)) { expressions.remove(expression); }
+                continue;
+            }
+
+            // A phi choosing between a single value, or itself, is that value.
+            for (SSAForm.Phi phi : ssa.phis.get(b)) {
+                String value = null;
+                boolean single = true;
+                for (String arg : phi.args) {
+                    arg = value(arg, values);
+                    if (arg == null || arg.equals(phi.result)) { continue; }
+                    if (value == null) { value = arg; }
+                    else if (!value.equals(arg)) { single = false; }
+                }
+                if (single && value != null) { values.put(phi.result, value); }
+            }
+            ssa.phis.get(b).removeIf(phi -> values.containsKey(phi.result));
+
+            ArrayList<TAC.Instruction> code = ssa.code.get(b);
+            for (int i = 0; i < code.size(); i++) {
+                TAC.Instruction ins = code.get(i);
+                if (ins.opcode != TAC.Opcode.CALL) { ins.left = value(ins.left, values); }
+                ins.right = value(ins.right, values);
+                if (!ssa.isVersion(ins.result)) { continue; }
+
+                String value = null;
+                if (ins.opcode == TAC.Opcode.COPY && !tac.globals.contains(ins.left)) {
+                    value = ins.left;
+                } else if ((ins.opcode == TAC.Opcode.UNARY || ins.opcode == TAC.Opcode.BINARY) &&
+                           !tac.globals.contains(ins.left) && !tac.globals.contains(ins.right)) {
+                    String expression = expression(ins);
+                    value = expressions.get(expression);
+                    if (value == null) {
+                        expressions.put(expression, ins.result);
+                        computed.get(b).add(expression);
+                    }
+                }
+                if (value != null) {
+                    values.put(ins.result, value);
+                    code.set(i, null);
+                }
+            }
+
+            work.push(~b);
+            List<ControlFlowGraph.Block> children = ssa.dominators.children.get(b);
+            for (int i = children.size() - 1; i >= 0; i--) { work.push(children.get(i).index); }
+        }
+
+        // The args coming through back edges are replaced last.
+        for (ArrayList<SSAForm.Phi> phis : ssa.phis) {
+            for (SSAForm.Phi phi : phis) {
+                for (int j = 0; j < phi.args.length; j++) { phi.args[j] = value(phi.args[j], values); }
+            }
+        }
+        for (ArrayList<TAC.Instruction> code : ssa.code) { code.removeIf(Objects::isNull); }
+    }
+
+    private static String value(String atom, HashMap<String, String> values) {
+        if (atom == null) { return null; }
+        String value = values.get(atom);
+        while (value != null && values.containsKey(value)) { value = values.get(value); }
+        return value != null ? value : atom;
+    }
+
+    // The same for operations giving the same value, operands in order.
+    private static String expression(TAC.Instruction ins) {
+        String left = ins.left, right = ins.right;
+        if (right != null && commutes(ins.operator) && left.compareTo(right) > 0) {
+            left  = ins.right;
+            right = ins.left;
+        }
+        return ins.operator + " " + left + " " + right;
+    }
+
+    private static boolean commutes(TAC.Operator op) {
+        return op == TAC.Operator.PLUS || op == TAC.Operator.AND || op == TAC.Operator.OR ||
+               op == TAC.Operator.EQUAL || op == TAC.Operator.DIFFERENT;
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.concurrent.*;
+import java.util.stream.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.io.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/* Compiles the .ccl files of a directory, its subdirectories included,
+   then compiles each again whenever it changes, until stopped. The JIT,
+   the DFA cache of the parser and the functions in the cache stay warm,
+   so a file where a few functions changed is compiled in a few
+   milliseconds. Each output is written next to its input, as in batch
+   mode, and the time taken is printed after the report. With stats,
+   the report is written again after each round of compilations. */
+class Watcher {
+    static final long settle = 10; // Milliseconds to wait for the other events of a save.
+
+    final Path directory;
+    final int level; // Of optimization.
+    private final FunctionCache cache;
+    private final HashMap<WatchKey, Path> directories = new HashMap<>();
+    private final HashMap<Path, String> sources = new HashMap<>(); // As last compiled.
+    private Path statsFile; // Null if no stats are kept.
+    private final Stats.Aggregate stats = new Stats.Aggregate();
+
+    Watcher(final Path directory, final int level, final FunctionCache cache) {
+        this.directory = directory;
+        this.level     = level;
+        this.cache     = cache;
+    }
+
+    public Watcher withStats(Path file) {
+        statsFile = file;
+        return this;
+    }
+
+    public void watch() throws IOException, InterruptedException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            register(service, directory);
+            for (Path file : Main.collectFiles(new String[] { directory.toString() })) { compile(file, false); }
+            writeStats();
+            System.out.println("Watching " + directory + ".\n");
+
+            while (true) {
+                // Editors often save with several events, taken together.
+                LinkedHashSet<Path> changed = new LinkedHashSet<>();
+                WatchKey key = service.take();
+                do { changed(service, key, changed); }
+                while ((key = service.poll(settle, TimeUnit.MILLISECONDS)) != null);
+                for (Path file : changed) { compile(file, true); }
+                writeStats();
+            }
+        }
+    }
+
+    private void register(WatchService service, Path start) throws IOException {
+        try (Stream<Path> walk = Files.walk(start)) {
+            for (Path path : (Iterable<Path>) walk.filter(Files::isDirectory)::iterator) {
+                directories.put(path.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+            }
+        }
+    }
+
+    // Adds the files the events of the key are about.
+    private void changed(WatchService service, WatchKey key, Set<Path> changed) throws IOException {
+        Path parent = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || parent == null) {
+                // Some events were lost, any file may have changed.
+                changed.addAll(Main.collectFiles(new String[] { directory.toString() }));
+                continue;
+            }
+            Path path = parent.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE) { sources.remove(path); }
+            else if (Files.isDirectory(path) && event.kind() == ENTRY_CREATE) {
+                register(service, path);
+                changed.addAll(Main.collectFiles(new String[] { path.toString() }));
+            } else if (Main.validFileName(path.toString())) { changed.add(path); }
+        }
+        if (!key.reset()) { directories.remove(key); }
+    }
+
+    private void writeStats() {
+        if (statsFile != null) { Stats.write(statsFile, stats.toJson()); }
+    }
+
+    /* Compiles the file if it is not as it was last compiled. When it
+       changed, the time since then is printed too, which includes
+       noticing the change. */
+    private void compile(Path file, boolean changed) {
+        String source;
+        try { source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8); }
+        catch (IOException e) { return; } // Removed since.
+        if (source.equals(sources.get(file))) { return; }
+        sources.put(file, source);
+
+        long start = System.nanoTime();
+        Compilation compilation = new Compilation(file, Compilation.outputOf(file), source)
+            .optimize(level).withCache(cache).withStats(statsFile != null).call();
+        long time = System.nanoTime() - start;
+        stats.add(compilation.stats());
+
+        Main.printResult(compilation);
+        long since = -1;
+        try {
+            if (changed) { since = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis(); }
+        } catch (IOException e) { }
+        System.out.println("Compiled in " + CompileClient.millis(time) + " ms" +
+            (since >= 0 ? ", " + since + " ms after the file changed." : ".") + "\n");
+    }
+}